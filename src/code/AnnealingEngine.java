@@ -0,0 +1,351 @@
+package code;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds a completion of a board by simulated annealing, in the style of Lewis' metaheuristic
+ * for sudoku. Every sub-grid is kept filled with a permutation of its missing numbers, and a
+ * move swaps two free cells of one sub-grid; the cost is the number of repeated numbers in the
+ * rows and columns, scored incrementally from per-line counts so a move allocates nothing.
+ * Several independent starts run on separate threads, each until it reaches zero cost or
+ * has made its budget of moves. The budget is counted in moves rather than time, and the
+ * completion of the lowest-numbered start that found one is returned, so the result for a
+ * seed does not depend on the load of the machine or on how the threads are scheduled.
+ * It fills the full grids of large puzzles in {@link PuzzleFactory}, and completes large
+ * boards that a bounded search gave up on in {@link Board#solveWithin(long)}, which
+ * answers the HINT, SOLVE, CAN and CHECK commands of {@link GameSession}.
+ * Annealing cannot prove a board unsolvable: a false result only means no completion was
+ * found within the budget. Layouts with regions besides rows, columns and sub-grids are
+ * solved by back-tracking instead.
+ */
+final class AnnealingEngine implements SolvingEngine {
+
+    /** Engine for boards a bounded search gave up on: four starts of two million moves each. */
+    static final AnnealingEngine FALLBACK = new AnnealingEngine(2_000_000, 4, 0x5DEECE66DL);
+
+    private static final double COOLING = 0.99;
+    /** Chains without improvement before a start is shuffled again. */
+    private static final int STALL = 40;
+    private static final int SAMPLES = 200;
+
+    private final long moves;
+    private final int starts;
+    private final long seed;
+
+    /**
+     * Creates an engine.
+     *
+     * @param moves  Moves allowed to each start per solve.
+     * @param starts Number of independent starts, each on its own thread.
+     * @param seed   Seed of the starts, so runs are reproducible.
+     */
+    AnnealingEngine(long moves, int starts, long seed) {
+        this.moves = moves;
+        this.starts = Math.max(1, starts);
+        this.seed = seed;
+    }
+
+    /**
+     * Returns whether a layout is made of rows, columns and one set of size-cell regions
+     * only, the shape this engine searches.
+     *
+     * @param layout The layout to check.
+     * @return True for classic and jigsaw layouts.
+     */
+    static boolean supports(Layout layout) {
+        return !layout.hasSums() && layout.regions() == 3 * layout.size();
+    }
+
+    @Override
+    public boolean solve(Board board) {
+        if (!supports(board.layout())) {
+            return board.solveSudoku();
+        }
+        int size = board.size();
+        Board start = board.cloneBoard();
+        if (!fillSingles(start)) {
+            return false;
+        }
+        int[] grid = new int[size * size];
+        for (int cell = 0; cell < grid.length; cell++) {
+            grid[cell] = start.getElement(cell / size, cell % size);
+        }
+        int[][] found = new int[starts][];
+        AtomicInteger winner = new AtomicInteger(Integer.MAX_VALUE);
+        AtomicBoolean stop = new AtomicBoolean();
+        SplittableRandom root = new SplittableRandom(seed);
+        Thread[] workers = new Thread[starts - 1];
+        for (int t = 0; t < workers.length; t++) {
+            Search search = new Search(board.layout(), grid, root.split(), t + 1, moves, found, winner, stop);
+            workers[t] = new Thread(search::run, "annealing-" + t);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+        new Search(board.layout(), grid, root, 0, moves, found, winner, stop).run();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                stop.set(true);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (Thread.currentThread().isInterrupted() || winner.get() == Integer.MAX_VALUE) {
+            return false;
+        }
+        int[] solution = found[winner.get()];
+        for (int cell = 0; cell < solution.length; cell++) {
+            if (board.getElement(cell / size, cell % size) == 0) {
+                board.load(cell / size, cell % size, solution[cell], true, false);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Places naked singles until none are left, shrinking the search space.
+     *
+     * @return False if the board breaks a rule or a cell has no candidate left.
+     */
+    private static boolean fillSingles(Board board) {
+        int size = board.size();
+        Layout layout = board.layout();
+        for (int r = 0; r < layout.regions(); r++) {
+            long used = 0;
+            for (int cell : layout.cells(r)) {
+                int num = board.getElement(cell / size, cell % size);
+                if (num != 0 && (used & 1L << num) != 0) {
+                    return false;
+                }
+                used |= 1L << num;
+            }
+        }
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    long candidates = board.candidates(row, col);
+                    if (board.getElement(row, col) != 0) {
+                        continue;
+                    }
+                    if (candidates == 0) {
+                        return false;
+                    }
+                    if (Long.bitCount(candidates) == 1) {
+                        board.load(row, col, Long.numberOfTrailingZeros(candidates), true, false);
+                        progress = true;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One start of the annealing, owning its grid and line counts.
+     */
+    private static final class Search {
+
+        private final int size;
+        private final int[] grid;
+        /** Free cells of each sub-grid that has at least two of them. */
+        private final int[][] blocks;
+        /** Free cells of every sub-grid, and the numbers missing from it. */
+        private final int[][] free, missing;
+        private final int[] rowCount, colCount;
+        private final SplittableRandom rand;
+        /** Number of this start; a start stops once a lower-numbered one has found a completion. */
+        private final int index;
+        private long moves;
+        /** Completion found by each start, and the lowest start that found one. */
+        private final int[][] found;
+        private final AtomicInteger winner;
+        /** Set when the caller was interrupted. */
+        private final AtomicBoolean stop;
+        private int cost;
+
+        Search(Layout layout, int[] grid, SplittableRandom rand, int index, long moves,
+               int[][] found, AtomicInteger winner, AtomicBoolean stop) {
+            this.size = layout.size();
+            this.grid = grid.clone();
+            this.rand = rand;
+            this.index = index;
+            this.moves = moves;
+            this.found = found;
+            this.winner = winner;
+            this.stop = stop;
+            this.rowCount = new int[size * (size + 1)];
+            this.colCount = new int[size * (size + 1)];
+            this.free = new int[size][];
+            this.missing = new int[size][];
+            int movable = 0;
+            for (int b = 0; b < size; b++) {
+                int[] cells = layout.cells(2 * size + b);
+                long used = 0;
+                int n = 0;
+                for (int cell : cells) {
+                    used |= 1L << grid[cell];
+                    n += grid[cell] == 0 ? 1 : 0;
+                }
+                free[b] = new int[n];
+                missing[b] = new int[n];
+                n = 0;
+                for (int cell : cells) {
+                    if (grid[cell] == 0) {
+                        free[b][n++] = cell;
+                    }
+                }
+                n = 0;
+                for (int num = 1; num <= size; num++) {
+                    if ((used & 1L << num) == 0) {
+                        missing[b][n++] = num;
+                    }
+                }
+                movable += free[b].length >= 2 ? 1 : 0;
+            }
+            this.blocks = new int[movable][];
+            movable = 0;
+            for (int b = 0; b < size; b++) {
+                if (free[b].length >= 2) {
+                    blocks[movable++] = free[b];
+                }
+            }
+        }
+
+        /**
+         * Records the grid as the completion of this start.
+         */
+        private void found() {
+            found[index] = grid.clone();
+            winner.accumulateAndGet(index, Math::min);
+        }
+
+        void run() {
+            shuffle();
+            if (cost == 0) {
+                found();
+                return;
+            }
+            if (blocks.length == 0) {
+                return;
+            }
+            int chain = 0;
+            for (int[] block : blocks) {
+                chain += block.length * block.length;
+            }
+            double initial = temperature();
+            double t = initial;
+            int best = cost, stalled = 0;
+            while (moves > 0 && winner.get() > index && !stop.get()
+                    && !Thread.currentThread().isInterrupted()) {
+                moves -= chain;
+                for (int step = 0; step < chain; step++) {
+                    int[] block = blocks[rand.nextInt(blocks.length)];
+                    int i = rand.nextInt(block.length);
+                    int j = rand.nextInt(block.length - 1);
+                    j += j >= i ? 1 : 0;
+                    int delta = swap(block[i], block[j]);
+                    if (delta > 0 && rand.nextDouble() >= Math.exp(-delta / t)) {
+                        swap(block[i], block[j]);
+                    } else {
+                        cost += delta;
+                        if (cost == 0) {
+                            found();
+                            return;
+                        }
+                    }
+                }
+                if (cost < best) {
+                    best = cost;
+                    stalled = 0;
+                } else if (++stalled > STALL) {
+                    shuffle();
+                    t = initial;
+                    best = cost;
+                    stalled = 0;
+                }
+                t *= COOLING;
+            }
+        }
+
+        /**
+         * Fills every sub-grid with a random permutation of its missing numbers and recounts
+         * the rows and columns.
+         */
+        private void shuffle() {
+            for (int b = 0; b < size; b++) {
+                int[] cells = free[b];
+                int[] nums = missing[b];
+                for (int k = nums.length - 1; k > 0; k--) {
+                    int j = rand.nextInt(k + 1);
+                    int tmp = nums[k];
+                    nums[k] = nums[j];
+                    nums[j] = tmp;
+                }
+                for (int k = 0; k < cells.length; k++) {
+                    grid[cells[k]] = nums[k];
+                }
+            }
+            Arrays.fill(rowCount, 0);
+            Arrays.fill(colCount, 0);
+            cost = 0;
+            for (int cell = 0; cell < grid.length; cell++) {
+                cost += rowCount[cell / size * (size + 1) + grid[cell]]++ >= 1 ? 1 : 0;
+                cost += colCount[cell % size * (size + 1) + grid[cell]]++ >= 1 ? 1 : 0;
+            }
+        }
+
+        /**
+         * Returns the standard deviation of the cost change over a sample of random moves,
+         * the usual starting temperature.
+         */
+        private double temperature() {
+            double sum = 0, squares = 0;
+            for (int k = 0; k < SAMPLES; k++) {
+                int[] block = blocks[rand.nextInt(blocks.length)];
+                int i = rand.nextInt(block.length);
+                int j = rand.nextInt(block.length - 1);
+                j += j >= i ? 1 : 0;
+                int delta = swap(block[i], block[j]);
+                swap(block[i], block[j]);
+                sum += delta;
+                squares += delta * delta;
+            }
+            double mean = sum / SAMPLES;
+            return Math.max(0.5, Math.sqrt(squares / SAMPLES - mean * mean));
+        }
+
+        /**
+         * Swaps two cells of one sub-grid and returns the change in cost. Swapping them
+         * again undoes the move.
+         */
+        private int swap(int p, int q) {
+            int a = grid[p], b = grid[q];
+            int delta = 0;
+            if (p / size != q / size) {
+                delta += shift(rowCount, p / size, a, b) + shift(rowCount, q / size, b, a);
+            }
+            if (p % size != q % size) {
+                delta += shift(colCount, p % size, a, b) + shift(colCount, q % size, b, a);
+            }
+            grid[p] = b;
+            grid[q] = a;
+            return delta;
+        }
+
+        /**
+         * Replaces one occurrence of a number in a line by another and returns the change
+         * in the line's repeat count.
+         */
+        private int shift(int[] count, int line, int from, int to) {
+            int base = line * (size + 1);
+            int delta = --count[base + from] >= 1 ? -1 : 0;
+            return delta + (count[base + to]++ >= 1 ? 1 : 0);
+        }
+    }
+}
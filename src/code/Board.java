@@ -1,7 +1,10 @@
 package code;
 
-import java.util.Random;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An abstraction of the Sudoku puzzle.
@@ -17,23 +20,73 @@ class  Board implements Cloneable{
     private boolean[][] valid;
     private boolean[][] mutable;
 
+    /**
+     * Zobrist keys shared by every board of the same size, indexed by
+     * (row * size + col) * (size + 1) + num. Slot 0 holds the hash of the empty board.
+     */
+    private static final Map<Integer, long[]> ZOBRIST = new ConcurrentHashMap<>();
+    private long[] keys;
+    private long hash;
+
+    /** The regions whose numbers may not repeat, see Layout. */
+    private Layout layout;
+    /**
+     * Digits used by each region, as bitmasks with bit num set while the region holds num,
+     * the number of times each region holds each digit, and the total and count of the
+     * numbers in each region. They are updated on every change of a cell, so rule checks
+     * and candidates never scan the board.
+     */
+    private long[] regionUsed;
+    private int[] regionCounts, regionSums, regionFilled;
+
+    /** Number of solver steps allowed when checking a generated preset. */
+    private static final long GENERATION_BUDGET = 20_000;
+    /** Remaining solver steps before solveSudoku gives up. */
+    private long budget = Long.MAX_VALUE;
+    /** Steps taken by the last solution count. */
+    private long nodes;
+    /** Empty cells walked by solveSudoku, kept between calls. */
+    private int[] empty;
+    /**
+     * Solution found when the board was generated, one byte per cell in row-major order, or
+     * null if none is known. It is never modified, so copies of the board share it.
+     */
+    private byte[] solution;
+    /** Number of filled cells that differ from the solution. */
+    private int strays;
+
     /**
      * Create a new board of the given size.
      *
      * @param size This will be the size of the board.
      */
     Board(int size) {
-        this.size = size;
-        this.board = new int[size][size];
-        this.valid = new boolean[size][size];
-        this.mutable = new boolean[size][size];
+        reset(size);
+    }
+
+    /**
+     * Create a new empty board following the rules of a layout.
+     *
+     * @param layout The regions of the board, e.g. a jigsaw or killer layout.
+     */
+    Board(Layout layout) {
+        reset(layout);
     }
 
-    private Board(int size, int[][] board, boolean[][] valid, boolean[][] mutable) {
-        this.size = size;
-        this.board = arrayClone(board);
-        this.valid = arrayClone(valid);
-        this.mutable = arrayClone(mutable);
+    private Board(Board other) {
+        this.size = other.size;
+        this.layout = other.layout;
+        this.board = arrayClone(other.board);
+        this.valid = arrayClone(other.valid);
+        this.mutable = arrayClone(other.mutable);
+        this.keys = other.keys;
+        this.hash = other.hash;
+        this.regionUsed = other.regionUsed.clone();
+        this.regionCounts = other.regionCounts.clone();
+        this.regionSums = other.regionSums.clone();
+        this.regionFilled = other.regionFilled.clone();
+        this.solution = other.solution;
+        this.strays = other.strays;
         this.wasSolved = false;
     }
 
@@ -43,10 +96,97 @@ class  Board implements Cloneable{
      * @return Returns a copy of a board object.
      */
     Board cloneBoard(){
-        return new Board(size,this.board,this.valid,this.mutable);
+        return new Board(this);
 
     }
 
+    /**
+     * Returns the Zobrist keys for boards of the given size, creating them on first use.
+     * The keys are derived from a fixed seed so hashes are stable between runs.
+     */
+    static long[] zobristKeys(int size) {
+        return ZOBRIST.computeIfAbsent(size, s -> {
+            SplittableRandom rand = new SplittableRandom(0x5D0C0L * 31 + s);
+            long[] keys = new long[s * s * (s + 1)];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = rand.nextLong();
+            }
+            return keys;
+        });
+    }
+
+    /**
+     * Stores num at row col while keeping the Zobrist hash and the region masks up to date.
+     */
+    private void place(int row, int col, int num) {
+        int cell = row * size + col;
+        int base = cell * (size + 1);
+        int old = board[row][col];
+        if (solution != null) {
+            strays += (num != 0 && num != solution[cell] ? 1 : 0) - (old != 0 && old != solution[cell] ? 1 : 0);
+        }
+        if (old != 0) {
+            hash ^= keys[base + old];
+            long bit = 1L << old;
+            for (int r : layout.regionsOf(cell)) {
+                if (--regionCounts[r * (size + 1) + old] == 0) {
+                    regionUsed[r] &= ~bit;
+                }
+                regionSums[r] -= old;
+                regionFilled[r]--;
+            }
+        }
+        if (num != 0) {
+            hash ^= keys[base + num];
+            long bit = 1L << num;
+            for (int r : layout.regionsOf(cell)) {
+                regionCounts[r * (size + 1) + num]++;
+                regionUsed[r] |= bit;
+                regionSums[r] += num;
+                regionFilled[r]++;
+            }
+        }
+        board[row][col] = num;
+    }
+
+    /**
+     * Returns the layout giving the regions of this board.
+     *
+     * @return The layout.
+     */
+    Layout layout() {
+        return layout;
+    }
+
+    /**
+     * Returns the numbers that could go into an empty cell: those not yet used in any of
+     * its regions (row, column, sub-grid, and any variant region).
+     *
+     * @param row This is the row of the cell.
+     * @param col This is the column of the cell.
+     * @return A bitmask with bit num set for each candidate, 0 if the cell is filled.
+     */
+    long candidates(int row, int col) {
+        if (board[row][col] != 0) {
+            return 0;
+        }
+        long used = 0;
+        for (int r : layout.regionsOf(row * size + col)) {
+            used |= regionUsed[r];
+        }
+        return ~used & ((1L << (size + 1)) - 2);
+    }
+
+    /**
+     * Returns the Zobrist hash of the digits currently on the board.
+     * Two boards of the same size holding the same digits share the same hash.
+     *
+     * @return Hash of the current state.
+     */
+    long hash() {
+        return hash;
+    }
+
     /**
      * Implementation of clone class.
      * */
@@ -87,38 +227,66 @@ class  Board implements Cloneable{
     }
 
     /**
-     * Method that creates a solvable board by backtracking.
+     * Method that creates a solvable board by backtracking, from a random seed.
      * */
     void generateBoard() {
-        ExecutorService service = Executors.newSingleThreadExecutor();
-        fillBoard();
-        try {
-            final Future f = service.submit(() -> {
-                Board init = this.cloneBoard();
-                while (!init.solveSudoku());
-            });
-            f.get(100, TimeUnit.MILLISECONDS);
-        } catch (final TimeoutException e) {
-            reset(this.size);
-            generateBoard();
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            service.shutdown();
+        generateBoard(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Method that creates a solvable board by backtracking.
+     * The same seed and size always produce the same board.
+     *
+     * @param seed Seed of the random numbers used to place the preset numbers.
+     * */
+    void generateBoard(long seed) {
+        generateBoard(new SplittableRandom(seed));
+    }
+
+    /**
+     * Method that creates a solvable board by backtracking, drawing from the given generator.
+     * Presets the search cannot complete within a fixed step budget are discarded and drawn
+     * again, so the result depends only on the generator state and never on timing.
+     * Classic 4x4 presets are looked up in the table of all grids instead, which finds
+     * the same solution without searching.
+     *
+     * @param rand Random number generator owned by the calling thread.
+     * */
+    void generateBoard(SplittableRandom rand) {
+        while (true) {
+            fillBoard(rand);
+            if (Grid4Engine.supports(layout)) {
+                int grid = Grid4Engine.first(this);
+                if (grid >= 0) {
+                    setSolution(Grid4Engine.digits(grid));
+                    return;
+                }
+                reset(layout);
+                continue;
+            }
+            Board init = this.cloneBoard();
+            init.budget = GENERATION_BUDGET;
+            if (init.solveSudoku()) {
+                setSolution(init.packedDigits());
+                return;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Board generation interrupted");
+            }
+            reset(layout);
         }
     }
 
     /**
      * This method generates a board preset with a given difficulty.
      */
-    private void fillBoard() {
-        Random rand = new Random();
+    private void fillBoard(SplittableRandom rand) {
         for (int placed = (size == 4) ? 4 : 26; placed > 0; placed--){
-            int n = rand.nextInt(size);
+            int n = rand.nextInt(size) + 1;
             int i = rand.nextInt(size);
             int j = rand.nextInt(size);
             if (ruleChecker(i, j, n)) {
-                board[i][j] = n;
+                place(i, j, n);
                 valid[i][j] = true;
                 mutable[i][j] = true;
             }
@@ -126,58 +294,347 @@ class  Board implements Cloneable{
     }
 
     /**
-     * Backtracking method that determines if a configuration is solvable.
-     * */
-    boolean isSolvable() {
-        ExecutorService service = Executors.newSingleThreadExecutor();
-        try {
-            final Future<Boolean> f = service.submit(() -> {
-                Board init = this.cloneBoard();
-                return init.solveSudoku();
-            });
-            f.get(100, TimeUnit.MILLISECONDS);
-        } catch (final TimeoutException e) {
+     * Fills the board with a solution, reusing the result of an earlier search
+     * of the same state when one is cached, and otherwise using the engine that
+     * suits the board.
+     *
+     * @see SolvingEngine#forBoard(Board)
+     *
+     * @return Determines if the board could be solved.
+     */
+    boolean solve() {
+        if (onSolution()) {
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    if (board[row][col] == 0) {
+                        place(row, col, solution[row * size + col]);
+                        valid[row][col] = true;
+                    }
+                }
+            }
+            return true;
+        }
+        if (Grid4Engine.supports(layout)) {
+            return Grid4Engine.INSTANCE.solve(this);
+        }
+        long key = hash;
+        int[] cached = SolveCache.get(key);
+        if (cached == null) {
+            boolean solved = SolvingEngine.forBoard(this).solve(this);
+            if (solved || !Thread.currentThread().isInterrupted()) {
+                SolveCache.put(key, solved ? digits() : SolveCache.UNSOLVABLE);
+            }
+            return solved;
+        }
+        if (cached == SolveCache.UNSOLVABLE) {
             return false;
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            service.shutdown();
         }
+        fill(cached);
         return true;
     }
 
+    /**
+     * Fills the empty cells from a solution of the board in row-major order.
+     */
+    private void fill(int[] digits) {
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (board[row][col] == 0) {
+                    place(row, col, digits[row * size + col]);
+                    valid[row][col] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a solution is known and every filled cell agrees with it, in which
+     * case the board can be finished without searching.
+     *
+     * @return True if the stored solution still applies.
+     */
+    boolean onSolution() {
+        return solution != null && strays == 0;
+    }
+
+    /**
+     * Returns the solution kept with the board, one byte per cell in row-major order.
+     * The array is shared and must not be modified.
+     *
+     * @return The solution, or null if none is known.
+     */
+    byte[] solution() {
+        return solution;
+    }
+
+    /**
+     * Keeps a known solution of the puzzle with the board, so that solving and checking
+     * entries can be answered from it while the player agrees with it.
+     *
+     * @param solution The digits of the solution in row-major order, shared and never
+     *                 modified, or null to forget it.
+     */
+    void setSolution(byte[] solution) {
+        this.solution = solution;
+        strays = 0;
+        for (int cell = 0; solution != null && cell < size * size; cell++) {
+            int num = board[cell / size][cell % size];
+            strays += num != 0 && num != solution[cell] ? 1 : 0;
+        }
+    }
+
+    /**
+     * Fills the board with a solution found on the calling thread, giving up after a number
+     * of steps of the back-tracking search rather than after a time limit, so the answer does
+     * not depend on the load of the machine. The grid comes from that one search, or from the
+     * stored solution, the 4x4 table or a cached result when one applies, so a bounded call
+     * never starts an unbounded search. With an unlimited budget the engine suited to the
+     * board is used instead. When the budget runs out on a 16x16 or larger board, annealing
+     * may still find a completion within {@link AnnealingEngine#FALLBACK}'s budget of moves;
+     * it can only answer true. Definite answers are cached.
+     *
+     * @param steps The search steps allowed, or Long.MAX_VALUE for no limit.
+     * @return True if the board was filled, false if it has no solution, or null if the
+     * budget ran out or the thread was interrupted first, leaving the board unchanged.
+     */
+    Boolean solveWithin(long steps) {
+        if (steps == Long.MAX_VALUE || onSolution() || Grid4Engine.supports(layout)) {
+            boolean solved = solve();
+            return solved || !Thread.currentThread().isInterrupted() ? solved : null;
+        }
+        long key = hash;
+        int[] cached = SolveCache.get(key);
+        if (cached != null) {
+            if (cached == SolveCache.UNSOLVABLE) {
+                return false;
+            }
+            fill(cached);
+            return true;
+        }
+        budget = steps;
+        boolean solved = solveSudoku();
+        boolean gaveUp = budget < 0;
+        budget = Long.MAX_VALUE;
+        if (solved) {
+            SolveCache.put(key, digits());
+            return true;
+        }
+        if (gaveUp && size >= 16 && AnnealingEngine.supports(layout) && AnnealingEngine.FALLBACK.solve(this)) {
+            SolveCache.put(key, digits());
+            return true;
+        }
+        if (gaveUp || Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+        SolveCache.put(key, SolveCache.UNSOLVABLE);
+        return false;
+    }
+
+    /**
+     * Tells whether the board can be solved, searching a copy within a step budget.
+     *
+     * @param steps The search steps allowed, or Long.MAX_VALUE for no limit.
+     * @return True or false, or null if the budget ran out or the thread was interrupted first.
+     * @see #solveWithin(long)
+     */
+    Boolean solvableWithin(long steps) {
+        return cloneBoard().solveWithin(steps);
+    }
+
+    /**
+     * Returns whether the number in a cell cannot be part of any solution of the puzzle,
+     * i.e. of the given numbers alone. Numbers that match the stored solution are answered
+     * at once; others are checked by searching from the givens within a step budget, and
+     * a search that runs out of steps is reported as unknown rather than wrong.
+     *
+     * @param row   The row of the cell.
+     * @param col   The column of the cell.
+     * @param steps The search steps allowed, or Long.MAX_VALUE for no limit.
+     * @return True for an entry that rules out every solution, false for one that does not
+     * and for empty cells and givens, or null if the search gave up.
+     * @see #solvableWithin(long)
+     */
+    Boolean isEntryWrong(int row, int col, long steps) {
+        int num = board[row][col];
+        if (num == 0 || !isMutable(row, col)) {
+            return false;
+        }
+        if (solution != null && solution[row * size + col] == num) {
+            return false;
+        }
+        Board test = new Board(layout);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                if (!isMutable(r, c)) {
+                    test.load(r, c, board[r][c], true, true);
+                }
+            }
+        }
+        if (!test.ruleChecker(row, col, num)) {
+            return true;
+        }
+        test.load(row, col, num, true, false);
+        Boolean solvable = test.solvableWithin(steps);
+        return solvable == null ? null : !solvable;
+    }
+
+    /**
+     * Copies the digits of the board in row-major order, one byte per cell.
+     */
+    private byte[] packedDigits() {
+        byte[] digits = new byte[size * size];
+        for (int cell = 0; cell < digits.length; cell++) {
+            digits[cell] = (byte) board[cell / size][cell % size];
+        }
+        return digits;
+    }
+
+    /**
+     * Copies the digits of the board in row-major order.
+     */
+    private int[] digits() {
+        int[] digits = new int[size * size];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(board[row], 0, digits, row * size, size);
+        }
+        return digits;
+    }
+
     /**
      * This is a back-tracking method to fill a partially generated board.
+     * The empty cells are listed once, in row-major order, and the search walks that list
+     * with an index instead of recursing; the number being tried in a cell is the one on
+     * the board, so after a backtrack the cell resumes with the next larger candidate.
+     * The search gives up, leaving the board unchanged and returning false, when the
+     * calling thread is interrupted or the step budget of the board runs out.
      *
      * @return Determines if the board can be solvable or not.
      */
     boolean solveSudoku() {
+        if (--budget < 0 || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (empty == null || empty.length < size * size) {
+            empty = new int[size * size];
+        }
+        int cells = 0;
         for (int row = 0; row < size; row++) {
             for (int col = 0; col < size; col++) {
-                if (board[row][col] == 0 && isMutable(row,col)) {
-                    for (int number = 1; number <= size; number++) {
-                        if (ruleChecker(row, col, number)) {
-                            board[row][col] = number;
-                            valid[row][col] = true;
-                            if (solveSudoku()) {
-                                return true;
-                            } else {
-                                board[row][col] = 0;
-                                valid[row][col] = false;
-                            }
+                if (board[row][col] == 0 && isMutable(row, col)) {
+                    empty[cells++] = row * size + col;
+                }
+            }
+        }
+        boolean sums = layout.hasSums();
+        int depth = 0;
+        while (depth < cells) {
+            int row = empty[depth] / size, col = empty[depth] % size;
+            int tried = board[row][col];
+            if (tried != 0) {
+                place(row, col, 0);
+                valid[row][col] = false;
+            }
+            long next = candidates(row, col) & -(2L << tried);
+            while (next != 0 && sums && !ruleChecker(row, col, Long.numberOfTrailingZeros(next))) {
+                next &= next - 1;
+            }
+            if (next == 0) {
+                if (depth == 0) {
+                    return false;
+                }
+                depth--;
+                continue;
+            }
+            place(row, col, Long.numberOfTrailingZeros(next));
+            valid[row][col] = true;
+            if (--budget < 0 || Thread.currentThread().isInterrupted()) {
+                for (int k = depth; k >= 0; k--) {
+                    place(empty[k] / size, empty[k] % size, 0);
+                    valid[empty[k] / size][empty[k] % size] = false;
+                }
+                return false;
+            }
+            depth++;
+        }
+        return true;
+    }
+
+    /**
+     * Counts the ways the empty cells can be filled, stopping once limit is reached.
+     * The board is left unchanged. Each step fills the empty cell with the fewest
+     * candidates, so proving a puzzle has a unique solution (limit 2) stays cheap.
+     *
+     * @param limit The count at which to stop searching.
+     * @return The number of solutions, at most limit.
+     */
+    long countSolutions(long limit) {
+        nodes = 0;
+        if (Grid4Engine.supports(layout)) {
+            return Grid4Engine.count(this, limit);
+        }
+        return count(limit);
+    }
+
+    /**
+     * Returns every solution of the board as a lazy stream. Each solution is a new board,
+     * found only when the stream asks for it, and the board itself is not changed. The stream
+     * splits the search tree for parallel use, e.g. solutions().parallel().count().
+     *
+     * @return The solutions, in no particular order.
+     */
+    Stream<Board> solutions() {
+        return StreamSupport.stream(new SolutionSpliterator(this), false);
+    }
+
+    /**
+     * Returns the number of search steps taken by the last call to countSolutions,
+     * a measure of how much guessing the puzzle needs.
+     *
+     * @return The number of cells tried.
+     */
+    long searchNodes() {
+        return nodes;
+    }
+
+    private long count(long limit) {
+        int bestRow = -1, bestCol = -1, bestCount = Integer.MAX_VALUE;
+        for (int row = 0; row < size && bestCount > 1; row++) {
+            for (int col = 0; col < size; col++) {
+                if (board[row][col] == 0) {
+                    int n = Long.bitCount(candidates(row, col));
+                    if (n < bestCount) {
+                        bestRow = row;
+                        bestCol = col;
+                        bestCount = n;
+                        if (n <= 1) {
+                            break;
                         }
                     }
-                return false;
                 }
             }
         }
-        return true;
+        if (bestRow < 0) {
+            return 1;
+        }
+        long found = 0;
+        long options = candidates(bestRow, bestCol);
+        while (options != 0 && found < limit) {
+            int number = Long.numberOfTrailingZeros(options);
+            options &= options - 1;
+            if (ruleChecker(bestRow, bestCol, number)) {
+                nodes++;
+                place(bestRow, bestCol, number);
+                found += count(limit - found);
+                place(bestRow, bestCol, 0);
+            }
+        }
+        return found;
     }
 
     /**
      * This method receives a coordinate in the matrix and checks if it is allowed.
-     * To check if the insertion is allowed, it relies on checkVertical, checkHorizontal,
-     * checkRange, and checkSubGrid.
+     * To check if the insertion is allowed, it relies on checkRange, checkRegions
+     * and isMutable.
      *
      * @param row This is the row to be checked.
      * @param col This is the column to be checked.
@@ -185,8 +642,7 @@ class  Board implements Cloneable{
      * @return Returns whether the insertion was allowed or not.
      */
     boolean ruleChecker(int row, int col, int num) {
-        return (checkHorizontal(row, num) && checkVertical(col, num)
-                && checkSubGrid(row, col, num) && checkRange(num) && isMutable(row,col));
+        return (checkRange(num) && checkRegions(row, col, num) && isMutable(row,col));
     }
 
     /**
@@ -196,7 +652,7 @@ class  Board implements Cloneable{
      * @param col This is the column at which the number would be deleted.
      */
     void deleteElement(int row, int col) {
-        board[row][col] = 0;
+        place(row, col, 0);
         valid[row][col] = false;
     }
 
@@ -211,6 +667,21 @@ class  Board implements Cloneable{
         return board[row][col];
     }
 
+    /**
+     * This restores a cell exactly as recorded elsewhere, without running the rule checks.
+     *
+     * @param row This is the row of the cell.
+     * @param col This is the column of the cell.
+     * @param num This is the number stored in the cell, 0 if empty.
+     * @param valid This is whether the entry was a valid insertion.
+     * @param given This is whether the number is part of the puzzle and cannot be changed.
+     */
+    void load(int row, int col, int num, boolean valid, boolean given) {
+        place(row, col, num);
+        this.valid[row][col] = valid;
+        this.mutable[row][col] = given;
+    }
+
     /**
      * This stores num into the position row col and determines if the insertion is valid.
      *
@@ -220,60 +691,38 @@ class  Board implements Cloneable{
      */
     void setElement(int row, int col, int num) {
         valid[row][col] = ruleChecker(row, col, num);
-        board[row][col] = num;
+        place(row, col, num);
     }
 
     /**
-     * This performs the horizontal rule check of sudoku.
+     * This performs the region rule checks of sudoku: the number may not already be in
+     * any region of the cell (its row, column and sub-grid for a classic board), and
+     * it may not break the sum of a killer cage.
      *
      * @param row This is the row which will be checked.
-     * @param num This is the number to be compared to the rest of the row.
-     * @return Returns if the number follows the rule.
-     */
-    private boolean checkHorizontal(int row, int num) {
-        for (int i = 0; i < size; i++) {
-            if (board[row][i] == num) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    /**
-     * This performs the vertical rule check of sudoku.
-     *
      * @param col This is the column which will be checked.
-     * @param num This is the number to be compared to the rest of the column.
-     * @return Returns if the number follows the rule.
+     * @param num This is the number to be compared to the rest of the regions.
+     * @return Returns if the number follows the rules.
      */
-    private boolean checkVertical(int col, int num) {
-        for (int i = 0; i < size; i++) {
-            if (board[i][col] == num) {
+    private boolean checkRegions(int row, int col, int num) {
+        long bit = 1L << num;
+        int[] regions = layout.regionsOf(row * size + col);
+        for (int r : regions) {
+            if ((regionUsed[r] & bit) != 0) {
                 return false;
             }
         }
-        return true;
-    }
-
-    /**
-     * This performs the sub-grid rule check of sudoku.
-     *
-     * @param row This is the row which will be checked.
-     * @param col This is the column which will be checked.
-     * @param num This is the number to be compared to the rest of the sub-grid.
-     * @return Returns if the number follows the rule.
-     */
-    private boolean checkSubGrid(int row, int col, int num) {
-        /*the starting position is determined by modding the
-         * row/col num by the sqrt of the size*/
-        int rowS = (int) Math.sqrt(size) * (int) Math.floor(Math.abs(row / Math.sqrt(size)));
-        int colS = (int) Math.sqrt(size) * (int) Math.floor(Math.abs(col / Math.sqrt(size)));
-        int rowE = (int) (rowS + (Math.sqrt(size)));
-        int colE = (int) (colS + (Math.sqrt(size)));
-        for (int i = rowS; i < rowE; i++) {
-            for (int j = colS; j < colE; j++) {
-                if (board[i][j] == num) {
-                    return false; //if a matching number is found
+        if (!layout.hasSums()) {
+            return true;
+        }
+        int old = board[row][col];
+        for (int r : regions) {
+            int target = layout.sum(r);
+            if (target != 0) {
+                int sum = regionSums[r] - old + num;
+                int filled = regionFilled[r] + (old == 0 ? 1 : 0);
+                if (sum > target || (filled == layout.cells(r).length && sum != target)) {
+                    return false;
                 }
             }
         }
@@ -302,16 +751,17 @@ class  Board implements Cloneable{
     }
 
     /**
-     * This checks if there are any 0's left in the matrix.
+     * This checks that the matrix is full and that every region (row, column, sub-grid
+     * and any variant region) holds each number at most once and adds up to its sum.
      *
-     * @return Returns if there are no 0's left in the matrix.
+     * @return Returns if the board is a complete solution.
      */
     boolean isSolved() {
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                if (!valid[i][j]) {
-                    return false;
-                }
+        for (int r = 0; r < layout.regions(); r++) {
+            int cells = layout.cells(r).length;
+            if (regionFilled[r] != cells || Long.bitCount(regionUsed[r]) != cells
+                    || (layout.sum(r) != 0 && regionSums[r] != layout.sum(r))) {
+                return false;
             }
         }
         return true;
@@ -327,14 +777,30 @@ class  Board implements Cloneable{
     }
 
     /**
-     * This method rests the values in the matrix back to 0;
+     * This method rests the values in the matrix back to 0, as a classic board of the given size.
      */
     void reset(int size) {
-        this.size = size;
+        reset(Layout.classic(size));
+    }
+
+    /**
+     * This method rests the values in the matrix back to 0, following the rules of a layout.
+     */
+    void reset(Layout layout) {
+        this.size = layout.size();
+        this.layout = layout;
         this.board = new int[size][size];
         this.valid = new boolean[size][size];
         this.mutable = new boolean[size][size];
-
+        this.regionUsed = new long[layout.regions()];
+        this.regionCounts = new int[layout.regions() * (size + 1)];
+        this.regionSums = new int[layout.regions()];
+        this.regionFilled = new int[layout.regions()];
+        this.keys = zobristKeys(size);
+        this.hash = keys[0] ^ layout.salt();
+        this.solution = null;
+        this.strays = 0;
+        this.wasSolved = false;
     }
 
     /**
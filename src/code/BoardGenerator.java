@@ -0,0 +1,91 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reproducible generation of many boards on several threads.
+ * The root generator is split once per board, in board order, as each board is handed out,
+ * so board i is the same for a given seed whatever the number of threads, and no two threads
+ * ever share random number state.
+ *
+ * @see Board#generateBoard(SplittableRandom)
+ * @see PuzzleFactory
+ */
+final class BoardGenerator {
+
+    /** A board to make: its number in the batch and the generator split off for it. */
+    static final class Task {
+        final int index;
+        final SplittableRandom rand;
+
+        private Task(int index, SplittableRandom rand) {
+            this.index = index;
+            this.rand = rand;
+        }
+    }
+
+    private final SplittableRandom root;
+    private final int count;
+    private int next;
+
+    /**
+     * Create the generators of a batch.
+     *
+     * @param seed Seed of the whole batch.
+     * @param count Number of boards in the batch.
+     */
+    BoardGenerator(long seed, int count) {
+        this.root = new SplittableRandom(seed);
+        this.count = count;
+    }
+
+    /**
+     * Hands out the next board of the batch. Safe to call from several threads.
+     *
+     * @return The task of the next board, or null once every board was handed out.
+     */
+    synchronized Task next() {
+        return next < count ? new Task(next++, root.split()) : null;
+    }
+
+    /**
+     * Generates boards in parallel.
+     *
+     * @param size Size of the boards.
+     * @param count Number of boards to generate.
+     * @param seed Seed of the whole batch.
+     * @param threads Number of worker threads.
+     * @return The boards, in the same order for the same seed.
+     */
+    static Board[] generate(int size, int count, long seed, int threads) throws InterruptedException {
+        BoardGenerator tasks = new BoardGenerator(seed, count);
+        Board[] boards = new Board[count];
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                results.add(service.submit(() -> {
+                    for (Task task = tasks.next(); task != null; task = tasks.next()) {
+                        Board board = new Board(size);
+                        board.generateBoard(task.rand);
+                        boards[task.index] = board;
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            service.shutdownNow();
+        }
+        return boards;
+    }
+}
@@ -3,6 +3,7 @@ package code;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.io.InputStream;
 import javax.swing.*;
 import sun.audio.AudioPlayer;
@@ -24,15 +25,23 @@ public class BoardPanel extends JPanel{
      * Background color of the board.
      */
     private static Color boardColor = new Color(70, 70, 70);
+    private static final Color SELECTED_COLOR = new Color(105, 105, 105);
 
     /**
-     * Board to be displayed.
+     * Snapshot of the board to be displayed, taken when it is set, so painting neither reads
+     * nor changes the board kept in the history.
      */
-    private Board board;
+    private PersistentBoard board;
     private int squareSize, hx, hy;
-    private boolean win, hover;
+    private boolean hover;
     int sx, sy;
-    boolean highlightSqr, invalid, reset;
+    boolean highlightSqr, invalid, reset, win;
+    /** Callback run once, after the first paint of the board. */
+    Runnable firstPaint;
+    /** Whether the candidates of empty cells are drawn as pencil marks. */
+    boolean pencilMarks;
+    /** Numbers and pencil marks rendered for the current square size and screen scale. */
+    private GlyphAtlas atlas;
 
 
     /**
@@ -40,7 +49,7 @@ public class BoardPanel extends JPanel{
      */
     BoardPanel(Board board, ClickListener listener) {
 //        System.out.println("BoardPanel");
-        this.board = board;
+        this.board = PersistentBoard.of(board);
         addMouseMotionListener(new MouseAdapter() {
             /**
              * {@inheritDoc}
@@ -90,14 +99,15 @@ public class BoardPanel extends JPanel{
     }
 
     /**
-     * Set the board to be displayed.
+     * Set the board to be displayed. The panel draws a snapshot of it, so later changes to
+     * the board show only after it is set again.
      *
      * @param board Receives an object of type Board.
      * @see Board
      */
     void setBoard(Board board) {
 //        System.out.println("setBoard");
-        this.board = board;
+        this.board = PersistentBoard.of(board);
     }
 
     /**
@@ -136,33 +146,68 @@ public class BoardPanel extends JPanel{
         highlightInvalid(g);
         highlightHovered(g);
         highlightSelected(g);
+        updateAtlas(g);
         drawNumbers(g);
+        drawPencilMarks(g);
         insideLines(g);
         outsideBox(g);
-        solved();
+        if (firstPaint != null) {
+            firstPaint.run();
+            firstPaint = null;
+        }
+    }
+
+    /**
+     * This method rebuilds the glyph atlas when the square size, the board size or the
+     * scale of the screen changed since the last paint.
+     *
+     * @param g The graphics of the paint, whose transform gives the screen scale.
+     */
+    private void updateAtlas(Graphics g) {
+        double scale = g instanceof Graphics2D ? ((Graphics2D) g).getTransform().getScaleX() : 1;
+        if (squareSize > 0 && (atlas == null || !atlas.fits(board.size(), squareSize, scale, getFont()))) {
+            atlas = new GlyphAtlas(getGraphicsConfiguration(), getFont(), board.size(), squareSize, scale);
+        }
     }
 
     /**
      * This method draws the numbers in the matrix, the color
      * depends whether it was a valid entry or not.
+     * The numbers are copied from the glyph atlas, centered in their squares.
      *
      * @param g This method receives the Graphics class to draw the numbers.
      */
     private void drawNumbers(Graphics g) {
+        if (atlas == null) {
+            return;
+        }
         for (int i = 0; i < board.size(); i++) {
             for (int j = 0; j < board.size(); j++) {
                 //if the number in the matrix are not 0's
                 if (board.getElement(i, j) != 0) {
-                    //if valid
-                    if (board.isValid(i, j)) {
-                        g.setColor(Color.WHITE);
-                        g.drawString(String.valueOf(board.getElement(i, j)), (j * squareSize) + (squareSize / 2 - 3), (i * squareSize) + (squareSize / 2 + 4));
-                    }
-                    //if not valid
-                    else if (!board.isValid(i, j)) {
-                        g.setColor(Color.BLACK);
-                        g.drawString(String.valueOf(board.getElement(i, j)), (j * squareSize) + (squareSize / 2 - 3), (i * squareSize) + (squareSize / 2 + 4));
-                    }
+                    atlas.drawNumber(g, board.getElement(i, j), board.isValid(i, j), j * squareSize, i * squareSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method draws the candidates of every empty cell as small digits laid out
+     * in a grid inside the cell, copied from the glyph atlas.
+     *
+     * @param g This method receives the Graphics class to draw the marks.
+     */
+    private void drawPencilMarks(Graphics g) {
+        if (!pencilMarks || atlas == null || atlas.markSize < 4) {
+            return;
+        }
+        for (int i = 0; i < board.size(); i++) {
+            for (int j = 0; j < board.size(); j++) {
+                long candidates = board.candidates(i, j);
+                while (candidates != 0) {
+                    int num = Long.numberOfTrailingZeros(candidates);
+                    candidates &= candidates - 1;
+                    atlas.drawMark(g, num, j * squareSize, i * squareSize);
                 }
             }
         }
@@ -187,27 +232,6 @@ public class BoardPanel extends JPanel{
         }
     }
 
-    /**
-     * This method checks if all the numbers in the matrix meet the game rules.
-     * If so, prompts the user to start a new game or to quit.
-     */
-    private void solved() {
-        if (board.isSolved() && !board.getWasSolved()) {
-            win = true;
-            playSound();
-            Object[] options = {"New Game", "Exit"};
-            int solved = JOptionPane.showOptionDialog(null, "You Won!",
-                    "Congratulations", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE,
-                    null, options, options[1]);
-            if (solved == JOptionPane.YES_OPTION) {
-                board.reset(board.size());
-            }
-            else {
-                System.exit(0);
-            }
-        }
-    }
-
     /**
      * This method draw the outside lines to define the sub-grid of the board
      *
@@ -221,11 +245,10 @@ public class BoardPanel extends JPanel{
         g.drawLine(0, squareSize * board.size(), squareSize * board.size(), squareSize * board.size()); //bottom line
         g.drawLine(squareSize * board.size(), 0, squareSize * board.size(), squareSize * board.size()); //right line
         /*this draw the grid in the rectangle*/
-        for (int i = 0; i < 276; i++) {
-            if ((i % (squareSize * Math.sqrt(board.size())) == 0)) {
-                g.drawLine(i, 0, i, squareSize * board.size());
-                g.drawLine(0, i, squareSize * board.size(), i); //bottom line
-            }
+        int box = (int) Math.sqrt(board.size());
+        for (int i = box; i < board.size(); i += box) {
+            g.drawLine(i * squareSize, 0, i * squareSize, squareSize * board.size());
+            g.drawLine(0, i * squareSize, squareSize * board.size(), i * squareSize);
         }
     }
 
@@ -237,10 +260,9 @@ public class BoardPanel extends JPanel{
     private void insideLines(Graphics g) {
 //        System.out.println("insideLines");
         g.setColor(Color.GRAY);
-        for (int i = 0; i < 276; i = i + squareSize) {
-            g.drawLine(i, 0, i, squareSize * board.size());
-            g.drawLine(0, i, squareSize * board.size(), i); //bottom line
-
+        for (int i = 1; i < board.size(); i++) {
+            g.drawLine(i * squareSize, 0, i * squareSize, squareSize * board.size());
+            g.drawLine(0, i * squareSize, squareSize * board.size(), i * squareSize); //bottom line
         }
     }
 
@@ -281,7 +303,7 @@ public class BoardPanel extends JPanel{
      */
     private void highlightSelected(Graphics g) {
         if (highlightSqr) {
-            g.setColor(new Color(105,105,105));
+            g.setColor(SELECTED_COLOR);
             g.fillRect(sx * squareSize, sy * squareSize, squareSize, squareSize);
         }
     }
@@ -298,4 +320,85 @@ public class BoardPanel extends JPanel{
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * The numbers 1 to size, white for valid entries and black for invalid ones, and the
+     * pencil marks, rasterized once into one image at the pixel size of the screen. Painting
+     * a cell copies a piece of the image, so no strings are built or laid out per frame; on a
+     * scaled (HiDPI) screen the image holds scale times more pixels than the square it fills.
+     */
+    private static final class GlyphAtlas {
+
+        private final int size, squareSize;
+        private final double scale;
+        private final Font font;
+        /** Numbers per row of pencil marks in a cell, and the size of a mark in the panel. */
+        private final int perRow, markSize;
+        /** Size in pixels of a number and of a mark in the image. */
+        private final int cellPixels, markPixels;
+        private final BufferedImage image;
+
+        GlyphAtlas(GraphicsConfiguration config, Font font, int size, int squareSize, double scale) {
+            this.size = size;
+            this.squareSize = squareSize;
+            this.scale = scale;
+            this.font = font;
+            this.perRow = (int) Math.ceil(Math.sqrt(size));
+            this.markSize = squareSize / perRow;
+            this.cellPixels = Math.max(1, (int) Math.round(squareSize * scale));
+            this.markPixels = Math.max(1, cellPixels / perRow);
+            int width = size * cellPixels, height = 2 * cellPixels + markPixels;
+            image = config != null ? config.createCompatibleImage(width, height, Transparency.TRANSLUCENT)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            Font numberFont = font.deriveFont(Font.PLAIN, cellPixels * 0.45f);
+            // marks show numbers the way the squares and buttons do, smaller when two digits wide
+            Font markFont = font.deriveFont(Font.PLAIN, markPixels * (size > 9 ? 0.55f : 0.8f));
+            for (int num = 1; num <= size; num++) {
+                int x = (num - 1) * cellPixels;
+                String text = String.valueOf(num);
+                render(g, numberFont, Color.WHITE, text, x, 0, cellPixels);
+                render(g, numberFont, Color.BLACK, text, x, cellPixels, cellPixels);
+                render(g, markFont, Color.LIGHT_GRAY, text, (num - 1) * markPixels, 2 * cellPixels, markPixels);
+            }
+            g.dispose();
+        }
+
+        /**
+         * Draws text centered in a square of the image.
+         */
+        private static void render(Graphics2D g, Font font, Color color, String text, int x, int y, int side) {
+            g.setFont(font);
+            g.setColor(color);
+            FontMetrics metrics = g.getFontMetrics();
+            g.drawString(text, x + (side - metrics.stringWidth(text)) / 2,
+                    y + (side - metrics.getHeight()) / 2 + metrics.getAscent());
+        }
+
+        /**
+         * Returns whether this atlas was made for the given board size, square size, scale
+         * and font.
+         */
+        boolean fits(int size, int squareSize, double scale, Font font) {
+            return this.size == size && this.squareSize == squareSize && this.scale == scale
+                    && this.font.equals(font);
+        }
+
+        /**
+         * Draws a number filling the square whose top left corner is x, y.
+         */
+        void drawNumber(Graphics g, int num, boolean valid, int x, int y) {
+            int sx = (num - 1) * cellPixels, sy = valid ? 0 : cellPixels;
+            g.drawImage(image, x, y, x + squareSize, y + squareSize, sx, sy, sx + cellPixels, sy + cellPixels, null);
+        }
+
+        /**
+         * Draws the pencil mark of num in its place inside the square whose top left corner is x, y.
+         */
+        void drawMark(Graphics g, int num, int x, int y) {
+            int dx = x + (num - 1) % perRow * markSize, dy = y + (num - 1) / perRow * markSize;
+            int sx = (num - 1) * markPixels, sy = 2 * cellPixels;
+            g.drawImage(image, dx, dy, dx + markSize, dy + markSize, sx, sy, sx + markPixels, sy + markPixels, null);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package code;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A board that many threads may edit and read at once without locks.
+ * Every cell is one word of an AtomicLongArray holding its number and flags, and every region
+ * has a word with bit num set while it holds num as a valid entry. A move first claims its cell
+ * with a compare-and-set that raises the PENDING flag, so moves on different cells never wait
+ * for each other, then claims the number's bit in each region of the cell with a compare-and-set
+ * of its own, giving back the bits already taken if one region has it. As with
+ * {@link Board#setElement(int, int, int)}, a number that breaks a rule is still stored but
+ * flagged invalid; it claims no region bits. Two moves racing for the same number in one
+ * region may both be flagged invalid, as each can see the bit the other is giving back.
+ * Readers never wait: a cell read, or a snapshot made of cell reads, sees each cell either
+ * before or after any move, with a pending move showing the number it replaces.
+ * Killer cages are not supported, as their sums cannot be kept in a single word.
+ *
+ * @see ConcurrentBoardStress
+ */
+final class ConcurrentBoard {
+
+    private static final long DIGIT = 0xFF;
+    /** Cell flag set when the entry passed the rule checks and holds its region bits. */
+    private static final long VALID = 1 << 8;
+    /** Cell flag set for numbers that are part of the puzzle. */
+    private static final long GIVEN = 1 << 9;
+    /** Cell flag set while a move on the cell is updating the region bits. */
+    private static final long PENDING = 1 << 10;
+
+    private final Layout layout;
+    private final int size;
+    private final AtomicLongArray cells;
+    private final AtomicLongArray regionUsed;
+
+    /**
+     * Create a concurrent board with the numbers, flags and layout of a board.
+     *
+     * @param board The board to copy.
+     * @throws IllegalArgumentException if the layout has killer cages.
+     */
+    ConcurrentBoard(Board board) {
+        if (board.layout().hasSums()) {
+            throw new IllegalArgumentException("Killer cages are not supported");
+        }
+        this.layout = board.layout();
+        this.size = board.size();
+        this.cells = new AtomicLongArray(size * size);
+        this.regionUsed = new AtomicLongArray(layout.regions());
+        for (int cell = 0; cell < size * size; cell++) {
+            int row = cell / size, col = cell % size;
+            int num = board.getElement(row, col);
+            boolean valid = num != 0 && claim(cell, num);
+            cells.set(cell, num | (valid ? VALID : 0) | (board.isMutable(row, col) ? 0 : GIVEN));
+        }
+    }
+
+    /**
+     * Return the size of this board.
+     *
+     * @return Returns the size of the board.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * This retrieves the element at position row col.
+     *
+     * @param row This is the row in the matrix.
+     * @param col This is the column in the matrix.
+     * @return Returns the element at the index.
+     */
+    int getElement(int row, int col) {
+        return (int) (cells.get(row * size + col) & DIGIT);
+    }
+
+    /**
+     * This returns whether the value was a valid insertion.
+     *
+     * @return Returns the flag stored at the index.
+     */
+    boolean isValid(int row, int col) {
+        return (cells.get(row * size + col) & VALID) != 0;
+    }
+
+    /**
+     * This returns whether an element in the board may be changed.
+     *
+     * @return False for numbers that are part of the puzzle.
+     */
+    boolean isMutable(int row, int col) {
+        return (cells.get(row * size + col) & GIVEN) == 0;
+    }
+
+    /**
+     * Returns the numbers a region holds as valid entries.
+     *
+     * @param region The region, numbered as in the layout.
+     * @return Bit mask of the numbers, bit n set for number n.
+     */
+    long regionUsed(int region) {
+        return regionUsed.get(region);
+    }
+
+    /**
+     * Stores num at row col, replacing any number there. The number is valid if no region
+     * of the cell holds it as a valid entry; the check and the update are one atomic step
+     * with respect to other moves, so two players can never both place the same number
+     * validly in one region.
+     *
+     * @param row This is the row at which the number is inserted.
+     * @param col This is the column at which the number is inserted.
+     * @param num This is the number inserted into the matrix, from 1 to size.
+     * @return True if the number was stored as valid, false if it was stored as invalid or
+     * the cell is given and was left unchanged.
+     */
+    boolean setElement(int row, int col, int num) {
+        if (num < 1 || num > size) {
+            throw new IllegalArgumentException("Number out of range: " + num);
+        }
+        int cell = row * size + col;
+        long old = acquire(cell);
+        if ((old & GIVEN) != 0) {
+            cells.set(cell, old);
+            return false;
+        }
+        release(cell, old);
+        boolean valid = claim(cell, num);
+        cells.set(cell, num | (valid ? VALID : 0));
+        return valid;
+    }
+
+    /**
+     * Sets the element at row col back to 0, unless it is given.
+     *
+     * @param row This is the row of the deleted number.
+     * @param col This is the column of the deleted number.
+     */
+    void deleteElement(int row, int col) {
+        int cell = row * size + col;
+        long old = acquire(cell);
+        if ((old & GIVEN) != 0) {
+            cells.set(cell, old);
+            return;
+        }
+        release(cell, old);
+        cells.set(cell, 0);
+    }
+
+    /**
+     * Copies the board without waiting for writers. Each cell is read once, so every cell
+     * is seen before or after any move, though moves on different cells may be seen in
+     * different states.
+     *
+     * @return A new Board holding the numbers and flags read.
+     */
+    Board snapshot() {
+        Board board = new Board(layout);
+        for (int cell = 0; cell < size * size; cell++) {
+            long word = cells.get(cell);
+            int num = (int) (word & DIGIT);
+            if (num != 0) {
+                board.load(cell / size, cell % size, num, (word & VALID) != 0, (word & GIVEN) != 0);
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Marks a cell pending, waiting only for another move on the same cell to finish.
+     *
+     * @return The word of the cell before the move.
+     */
+    private long acquire(int cell) {
+        while (true) {
+            long word = cells.get(cell);
+            if ((word & PENDING) == 0 && cells.compareAndSet(cell, word, word | PENDING)) {
+                return word;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Gives back the region bits held by the old number of a pending cell. Its word keeps
+     * showing the old number until the move stores the new one.
+     */
+    private void release(int cell, long old) {
+        if ((old & VALID) != 0) {
+            long bit = 1L << (old & DIGIT);
+            for (int r : layout.regionsOf(cell)) {
+                clear(r, bit);
+            }
+        }
+    }
+
+    /**
+     * Takes the bit of num in every region of a cell, or none of them if one region
+     * already holds num.
+     *
+     * @return Whether the bits were taken.
+     */
+    private boolean claim(int cell, int num) {
+        long bit = 1L << num;
+        int[] regions = layout.regionsOf(cell);
+        for (int k = 0; k < regions.length; k++) {
+            long used;
+            do {
+                used = regionUsed.get(regions[k]);
+                if ((used & bit) != 0) {
+                    for (int j = 0; j < k; j++) {
+                        clear(regions[j], bit);
+                    }
+                    return false;
+                }
+            } while (!regionUsed.compareAndSet(regions[k], used, used | bit));
+        }
+        return true;
+    }
+
+    private void clear(int region, long bit) {
+        long used;
+        do {
+            used = regionUsed.get(region);
+        } while (!regionUsed.compareAndSet(region, used, used & ~bit));
+    }
+}
@@ -0,0 +1,186 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress check for {@link ConcurrentBoard}. Writer threads play random sets and deletes on
+ * one puzzle, crowded onto a few rows so that moves race for the same cells and regions,
+ * while a reader keeps taking snapshots. Every snapshot must show the givens
+ * untouched. Every few dozen moves the writers meet at a barrier, and while none of them
+ * is moving, no region may hold a number twice as a valid entry and the region masks must
+ * match the valid entries of a snapshot; checking only at the end would miss broken states
+ * that later moves happen to repair.
+ * Runs with 1, 2, 4, ... writers up to the given number, prints the moves per second of each
+ * run, and exits with status 1 at the first broken invariant.
+ *
+ * Usage: java -cp Sudoku.jar code.ConcurrentBoardStress [size] [max writers] [moves per writer] [seed]
+ */
+class ConcurrentBoardStress {
+
+    /** Moves each writer makes between two checks. */
+    private static final int CHECK_EVERY = 64;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+        int maxWriters = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int moves = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        if (!GridValidator.hasBoxes(size) || maxWriters < 1 || moves < 0) {
+            System.err.println("Usage: ConcurrentBoardStress [size] [max writers] [moves per writer] [seed], "
+                    + "with a square size and at least one writer");
+            System.exit(2);
+        }
+        for (int writers = 1; writers <= maxWriters; writers *= 2) {
+            String error = run(size, writers, moves, seed);
+            if (error != null) {
+                System.err.printf("%dx%d, %d writers: %s%n", size, size, writers, error);
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Plays one run and checks the board.
+     *
+     * @return A description of the first broken invariant, or null.
+     */
+    private static String run(int size, int writers, int moves, long seed)
+            throws InterruptedException, ExecutionException {
+        SplittableRandom root = new SplittableRandom(seed);
+        Board puzzle = puzzle(size, root);
+        ConcurrentBoard board = new ConcurrentBoard(puzzle);
+        // a band of rows small enough that writers collide, large enough to span boxes
+        int rows = Math.min(size, 2 * (int) Math.sqrt(size));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        CyclicBarrier barrier = new CyclicBarrier(writers, () -> {
+            String error = check(puzzle, board);
+            if (error != null) {
+                failure.compareAndSet(null, error);
+            }
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(writers + 1);
+        try {
+            Future<String> reader = pool.submit(() -> {
+                while (!done.get()) {
+                    String error = checkGivens(puzzle, board.snapshot());
+                    if (error != null) {
+                        return error;
+                    }
+                }
+                return null;
+            });
+            List<Future<?>> results = new ArrayList<>(writers);
+            long start = System.nanoTime();
+            for (int w = 0; w < writers; w++) {
+                SplittableRandom rand = root.split();
+                results.add(pool.submit(() -> {
+                    for (int m = 0; m < moves && failure.get() == null; m++) {
+                        if (m % CHECK_EVERY == CHECK_EVERY - 1) {
+                            barrier.await();
+                        }
+                        int row = rand.nextInt(rows), col = rand.nextInt(size);
+                        if (rand.nextInt(5) == 0) {
+                            board.deleteElement(row, col);
+                        } else {
+                            board.setElement(row, col, 1 + rand.nextInt(size));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            done.set(true);
+            String error = reader.get();
+            if (error == null) {
+                error = failure.get();
+            }
+            if (error == null) {
+                error = check(puzzle, board);
+            }
+            System.out.printf("%dx%d, %2d writers: %,d moves in %.2f s, %,.0f moves/s%n", size, size,
+                    writers, (long) writers * moves, elapsed / 1e9, (double) writers * moves * 1e9 / elapsed);
+            return error;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Gives a random third of the cells of a complete grid built by shifting the rows, which
+     * is fast for any size, unlike {@link Board#generateBoard(SplittableRandom)} for large ones.
+     */
+    private static Board puzzle(int size, SplittableRandom rand) {
+        int box = (int) Math.sqrt(size);
+        Board puzzle = new Board(size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (rand.nextInt(3) == 0) {
+                    int num = (row % box * box + row / box + col) % size + 1;
+                    puzzle.load(row, col, num, true, true);
+                }
+            }
+        }
+        return puzzle;
+    }
+
+    /**
+     * Checks that a snapshot holds every given of the puzzle, still given, and no other.
+     */
+    private static String checkGivens(Board puzzle, Board snapshot) {
+        int size = puzzle.size();
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                boolean given = !puzzle.isMutable(row, col);
+                if (given != !snapshot.isMutable(row, col)
+                        || (given && snapshot.getElement(row, col) != puzzle.getElement(row, col))) {
+                    return String.format("given at row %d, column %d changed", row, col);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks a board no move is running on: the givens, the valid entries of every region,
+     * and the region masks against a snapshot.
+     */
+    private static String check(Board puzzle, ConcurrentBoard board) {
+        Board snapshot = board.snapshot();
+        String error = checkGivens(puzzle, snapshot);
+        if (error != null) {
+            return error;
+        }
+        int size = puzzle.size();
+        Layout layout = puzzle.layout();
+        for (int r = 0; r < layout.regions(); r++) {
+            long used = 0;
+            for (int cell : layout.cells(r)) {
+                int num = snapshot.getElement(cell / size, cell % size);
+                if (num != 0 && snapshot.isValid(cell / size, cell % size)) {
+                    if ((used & 1L << num) != 0) {
+                        return String.format("region %d holds %d twice as a valid entry", r, num);
+                    }
+                    used |= 1L << num;
+                }
+            }
+            if (board.regionUsed(r) != used) {
+                return String.format("mask of region %d is %x, its valid entries make %x",
+                        r, board.regionUsed(r), used);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,409 @@
+package code;
+
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.Insets;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import javax.swing.*;
+
+/**
+ * The game played in the Sudoku window: the history of moves, the move journal and the
+ * background solvability checks, driven by the callbacks of the board panel and the buttons.
+ * What the window shows around the board goes through a {@link View}, so the same callbacks
+ * run headless in {@link UiLoadHarness}. Methods are called on the event dispatch thread.
+ *
+ * @see SudokuDialog
+ */
+class GameController {
+
+    /** What the window shows besides the board. */
+    interface View {
+        /**
+         * Display a message in the message bar.
+         */
+        void showMessage(String msg);
+
+        /**
+         * Replace the number buttons with new ones for the selected square.
+         */
+        void showNumberButtons(JPanel numberButtons);
+
+        /**
+         * Show whether the current state can still be solved.
+         *
+         * @param solvable The result of the check, or null while it runs.
+         */
+        void showSolvable(Boolean solvable);
+
+        /**
+         * Tell the player the board was solved, after the winning move is drawn.
+         *
+         * @param size Size of the solved board, for a new game.
+         */
+        void showWon(int size);
+    }
+
+    /** A move to be written to the journal. */
+    interface JournalEntry {
+        void write(MoveJournal journal) throws IOException;
+    }
+
+    private final View view;
+    /** Special panel to display a Sudoku historyIterator. */
+    private final BoardPanel boardPanel;
+    /** Sudoku historyIterator. */
+    private HistoryNode historyIterator;
+    /** Move journal, or null when moves are not recorded. */
+    private MoveJournal journal;
+
+    /** Low priority thread checking whether each new state can still be solved. */
+    private final ExecutorService checker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "solvability-check");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    /** The running check, cancelled when a newer state replaces it. */
+    private Future<?> check;
+    /** The running check of the last entry, cancelled with the solvability check. */
+    private Future<?> entryCheck;
+    /** Button action waiting for the check of the current state to finish, or null. */
+    private Runnable pendingAnswer;
+
+    /**
+     * Create a game showing a first board.
+     *
+     * @param board The first board.
+     * @param view  What shows the messages, number buttons and solvability.
+     */
+    GameController(Board board, View view) {
+        this.view = view;
+        this.historyIterator = new HistoryNode(board);
+        this.boardPanel = new BoardPanel(historyIterator.getBoard(), this::boardClicked);
+    }
+
+    /**
+     * Return the panel showing the board.
+     *
+     * @return The board panel.
+     */
+    BoardPanel panel() {
+        return boardPanel;
+    }
+
+    /**
+     * Return the node of the state being played.
+     *
+     * @return The current history node.
+     */
+    HistoryNode current() {
+        return historyIterator;
+    }
+
+    /**
+     * Return whether moves are being written to a journal.
+     *
+     * @return True while a journal is open.
+     */
+    boolean isJournaling() {
+        return journal != null;
+    }
+
+    /**
+     * Starts recording moves, beginning with the current board.
+     *
+     * @param journal The journal to write to.
+     */
+    void setJournal(MoveJournal journal) {
+        this.journal = journal;
+        record(j -> j.puzzle(historyIterator.getBoard()));
+    }
+
+    /**
+     * Callback to be invoked when a square of the historyIterator is clicked.
+     *
+     * @param x 0-based row index of the clicked square.
+     * @param y 0-based column index of the clicked square.
+     */
+    void boardClicked(int x, int y) {
+        boardPanel.sx = x;
+        boardPanel.sy = y;
+        boardPanel.highlightSqr = true;
+        view.showNumberButtons(makeNumberButtons());
+        boardPanel.repaint();
+        view.showMessage(String.format("Board clicked: x = %d, y = %d", x, y));
+    }
+
+    /**
+     * Callback to be invoked when a number button is clicked.
+     *
+     * @param number Clicked number (1-9), or 0 for "X".
+     */
+    void numberClicked(int number) {
+        if (historyIterator.isMutable(boardPanel.sy, boardPanel.sx)) {
+            createHistory();
+            if (number == 0) {
+                historyIterator.deleteElement(boardPanel.sy, boardPanel.sx);
+                record(j -> j.delete(boardPanel.sy, boardPanel.sx));
+                view.showMessage("Number Deleted");
+            }
+            else {
+                historyIterator.setElement(boardPanel.sy, boardPanel.sx, number);
+                record(j -> j.set(boardPanel.sy, boardPanel.sx, number));
+                boardPanel.invalid = !historyIterator.isValid(boardPanel.sy, boardPanel.sx);
+                view.showMessage(String.format("Inserted Number %d", number));
+            }
+            boardPanel.setBoard(historyIterator.getBoard());
+            checkSolvable();
+            if (number != 0 && !boardPanel.invalid) {
+                checkEntry(boardPanel.sy, boardPanel.sx, number);
+            }
+        }
+        else {
+            boardPanel.invalid = true;
+        }
+        boardPanel.highlightSqr = false;
+        boardPanel.repaint();
+        checkWon();
+    }
+
+    /**
+     * Shows a new board with a fresh history.
+     *
+     * @param board The new board.
+     * @param entry How the board is recorded in the journal.
+     */
+    void startGame(Board board, JournalEntry entry) {
+        startGame(new HistoryNode(board), entry);
+    }
+
+    /**
+     * Shows the board of a history node, keeping the history around it.
+     *
+     * @param node  The state to show.
+     * @param entry How the board is recorded in the journal.
+     */
+    void startGame(HistoryNode node, JournalEntry entry) {
+        historyIterator = node;
+        record(entry);
+        boardPanel.setBoard(historyIterator.getBoard());
+        boardPanel.highlightSqr = false;
+        boardPanel.reset = true;
+        view.showNumberButtons(makeNumberButtons());
+        boardPanel.repaint();
+        checkSolvable();
+        checkWon();
+    }
+
+    /**
+     * Method in charge of creating the number buttons.
+     * */
+    JPanel makeNumberButtons() {
+        return makeNumberButtons(historyIterator.getBoard(), boardPanel.sy, boardPanel.sx, this::numberClicked);
+    }
+
+    /**
+     * Creates the number buttons for a cell, disabling the numbers that break the rules there.
+     *
+     * @param board Board holding the cell.
+     * @param row Row of the selected cell.
+     * @param col Column of the selected cell.
+     * @param listener Receives the clicked number, or 0 for "X".
+     * */
+    static JPanel makeNumberButtons(Board board, int row, int col, IntConsumer listener) {
+        JPanel numberButtons = new JPanel(new FlowLayout());
+        int maxNumber = board.size() + 1;
+        for (int i = 1; i <= maxNumber; i++) {
+            int number = i % maxNumber;
+            JButton button = new JButton(number == 0 ? "X" : String.valueOf(number));
+            button.setFocusPainted(false);
+            button.setMargin(new Insets(0, 2, 0, 2));
+            button.addActionListener(e -> listener.accept(number));
+            if (!board.ruleChecker(row,col,i) && number != 0) {
+                button.setEnabled(false);
+            }
+            numberButtons.add(button);
+        }
+        numberButtons.setAlignmentX(Component.CENTER_ALIGNMENT);
+        numberButtons.setBackground(SudokuDialog.BACKGROUND);
+        return numberButtons;
+    }
+
+    /**
+     * Announces a board the player has just solved. The board is marked solved first, so
+     * it is announced once, whatever is painted before the player answers.
+     */
+    private void checkWon() {
+        Board board = historyIterator.getBoard();
+        if (board.isSolved() && !board.getWasSolved()) {
+            board.setWasSolved();
+            boardPanel.win = true;
+            int size = board.size();
+            SwingUtilities.invokeLater(() -> view.showWon(size));
+        }
+    }
+
+    /**
+     * Creates history for undo and redo functions of Sudoku game
+     *
+     */
+    private void createHistory() {
+        try {
+            historyIterator.setNext(new HistoryNode(historyIterator.getBoard().clone(), historyIterator));
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        }
+        historyIterator = historyIterator.getNext();
+    }
+
+    /**
+     * Writes a move to the journal. Journaling stops at the first write error.
+     * */
+    void record(JournalEntry entry) {
+        if (journal != null) {
+            try {
+                entry.write(journal);
+                journal.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+                journal = null;
+            }
+        }
+    }
+
+    /**
+     * Goes back to previous game state, essentially "undoing" a move if possible
+     */
+    void undo() {
+        if(historyIterator.getPrevious() != null) {
+            historyIterator = historyIterator.getPrevious();
+            record(MoveJournal::undo);
+            checkSolvable();
+            boardPanel.setBoard(historyIterator.getBoard());
+            boardPanel.highlightSqr = false;
+            boardPanel.repaint();
+        }
+    }
+
+    /**
+     * Goes forward to next game state, essentially "redoing" a move if possible
+     */
+    void redo() {
+        if(historyIterator.getNext() != null) {
+            historyIterator = historyIterator.getNext();
+            record(MoveJournal::redo);
+            checkSolvable();
+            boardPanel.highlightSqr = false;
+            boardPanel.setBoard(historyIterator.getBoard());
+            boardPanel.repaint();
+        }
+    }
+
+    /**
+     * Method called when the solve button is pressed.
+     * */
+    void solve() {
+        if (historyIterator.getSolvable() == null) {
+            pendingAnswer = this::solve;
+            view.showMessage("Checking whether this board can be solved...");
+            return;
+        }
+        Board test = historyIterator.getBoard().cloneBoard();
+        if (historyIterator.getSolvable() && test.solve()) {
+            test.setWasSolved();
+            createHistory();
+            historyIterator.setBoard(test);
+            historyIterator.setSolvable(true);
+            boardPanel.setBoard(historyIterator.getBoard());
+            record(MoveJournal::solve);
+            boardPanel.repaint();
+            checkSolvable();
+        }
+        else {
+            JOptionPane.showMessageDialog(null, "This boars cannot be solved.", "Can It Be Solved?", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Method called when the can solve button is called. The answer comes from the
+     * background check of the current state, or is shown as soon as that check ends.
+     * */
+    void isSolvable() {
+        if (historyIterator.getBoard().isSolved()) {
+            return;
+        }
+        Boolean solvable = historyIterator.getSolvable();
+        if (solvable == null) {
+            pendingAnswer = this::isSolvable;
+            view.showMessage("Checking whether this board can be solved...");
+        } else if (solvable) {
+            JOptionPane.showMessageDialog(null, "This board CAN be solved.", "Can It Be Solved?", JOptionPane.INFORMATION_MESSAGE);
+        } else {
+            JOptionPane.showMessageDialog(null, "This board CANNOT be solved.", "Can It Be Solved?", JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
+
+    /**
+     * Checks in the background, after the solvability check, whether a number just entered
+     * rules out every solution of the puzzle, and says so in the message bar while the state
+     * it was entered in is still shown.
+     * */
+    private void checkEntry(int row, int col, int number) {
+        HistoryNode node = historyIterator;
+        Board board = node.getBoard().cloneBoard();
+        entryCheck = checker.submit(() -> {
+            if (board.isEntryWrong(row, col, Long.MAX_VALUE) == Boolean.TRUE) {
+                SwingUtilities.invokeLater(() -> {
+                    if (historyIterator == node) {
+                        view.showMessage(String.format("Inserted Number %d, but it leads to no solution", number));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Starts the background solvability check of the current state, cancelling the check
+     * of an earlier one. The search has no time limit; it runs until it finds an answer or
+     * a newer move replaces it. States that were already checked keep their result, and the
+     * solution found is cached, so solving afterwards does not search again.
+     * */
+    void checkSolvable() {
+        if (check != null) {
+            check.cancel(true);
+        }
+        if (entryCheck != null) {
+            entryCheck.cancel(true);
+        }
+        pendingAnswer = null;
+        HistoryNode node = historyIterator;
+        Board board = node.getBoard().cloneBoard();
+        if (node.getSolvable() == null && board.onSolution()) {
+            node.setSolvable(true);
+        }
+        view.showSolvable(node.getSolvable());
+        if (node.getSolvable() != null) {
+            return;
+        }
+        check = checker.submit(() -> {
+            boolean solvable = board.solve();
+            if (!Thread.currentThread().isInterrupted()) {
+                node.setSolvable(solvable);
+                SwingUtilities.invokeLater(() -> {
+                    if (historyIterator == node) {
+                        view.showSolvable(node.getSolvable());
+                        Runnable answer = pendingAnswer;
+                        pendingAnswer = null;
+                        if (answer != null) {
+                            answer.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,271 @@
+package code;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A headless server hosting one {@link GameSession} per connection over a line-based
+ * protocol on a local TCP socket.
+ * A single selector thread does all socket reads, and complete lines are executed on a
+ * small worker pool, so idle sessions cost a buffer and a board instead of a thread.
+ * Replies are written without blocking; what the socket does not take at once is queued
+ * and sent by the selector thread when the socket becomes writable. Commands that search
+ * work within a step budget on the worker, so no command holds a worker for long.
+ *
+ * Usage: java -cp Sudoku.jar code.GameServer [port]
+ *
+ * @see GameSession
+ * @see LoadGenerator
+ */
+class GameServer {
+
+    /** Port used when none is given on the command line. */
+    static final int DEFAULT_PORT = 7777;
+    /** Longest command line; longer ones are answered with an error and skipped. */
+    private static final int MAX_LINE = 256;
+    /** Reply bytes a client may leave unread before it is disconnected. */
+    private static final int MAX_PENDING = 1 << 16;
+    /** Stands for a line that was too long in the queue of lines to run. */
+    private static final String TOO_LONG = new String("");
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+
+    /**
+     * Create a server bound to the loopback interface.
+     *
+     * @param port TCP port to listen on, or 0 for any free port.
+     */
+    GameServer(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread worker = new Thread(r, "game-worker");
+            worker.setDaemon(true);
+            return worker;
+        });
+    }
+
+    /**
+     * Return the port the server is listening on.
+     *
+     * @return The bound port.
+     */
+    int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Accepts connections and reads commands until the thread is interrupted.
+     */
+    void serve() throws IOException {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.flush();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            selector.close();
+            server.close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    /**
+     * One client connection: its session, the unparsed input, the lines waiting to run and
+     * the replies waiting to be sent.
+     * Lines of a connection are executed in order by at most one worker at a time.
+     */
+    private class Connection implements Runnable {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final GameSession session = new GameSession();
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        private final Queue<String> lines = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /** Replies not yet taken by the socket, guarded by its own lock. */
+        private final Queue<ByteBuffer> out = new ArrayDeque<>();
+        private int pending;
+        /** Whether the connection closes once the queued replies are sent. */
+        private boolean closing;
+        /** Whether input is being skipped up to the end of a line that was too long. */
+        private boolean discarding;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Reads what is available and schedules any complete lines.
+         */
+        void read() {
+            int n;
+            try {
+                n = channel.read(in);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            int start = 0;
+            for (int i = 0; i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    if (!discarding) {
+                        lines.add(new String(in.array(), start, i - start, StandardCharsets.US_ASCII));
+                    }
+                    discarding = false;
+                    start = i + 1;
+                }
+            }
+            in.position(start);
+            in.compact();
+            if (!in.hasRemaining()) {
+                if (!discarding) {
+                    lines.add(TOO_LONG);
+                    discarding = true;
+                }
+                in.clear();
+            }
+            if (!lines.isEmpty() && scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                String line;
+                while ((line = lines.poll()) != null) {
+                    if (line == TOO_LONG) {
+                        write("ERR line too long", false);
+                    } else if (line.trim().equalsIgnoreCase("QUIT")) {
+                        write("OK bye", true);
+                        lines.clear();
+                        return;
+                    } else {
+                        try {
+                            write(session.execute(line), false);
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                            write("ERR internal error", false);
+                        }
+                    }
+                }
+                scheduled.set(false);
+            } while (!lines.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        /**
+         * Queues a reply and sends what the socket takes without blocking.
+         *
+         * @param last Whether to close the connection once the reply is sent.
+         */
+        private void write(String reply, boolean last) {
+            ByteBuffer buffer = ByteBuffer.wrap((reply + "\n").getBytes(StandardCharsets.US_ASCII));
+            synchronized (out) {
+                out.add(buffer);
+                pending += buffer.remaining();
+                closing |= last;
+                flush();
+            }
+        }
+
+        /**
+         * Sends queued replies until the socket buffer is full, then asks the selector to
+         * report when it is writable again. Called by workers and by the selector thread.
+         */
+        void flush() {
+            synchronized (out) {
+                try {
+                    while (!out.isEmpty()) {
+                        ByteBuffer head = out.peek();
+                        pending -= channel.write(head);
+                        if (head.hasRemaining()) {
+                            break;
+                        }
+                        out.remove();
+                    }
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+                if (out.isEmpty() ? closing : pending > MAX_PENDING) {
+                    close();
+                    return;
+                }
+                int ops = out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+                if (key.isValid() && key.interestOps() != ops) {
+                    key.interestOps(ops);
+                    selector.wakeup();
+                }
+            }
+        }
+
+        private void close() {
+            lines.clear();
+            synchronized (out) {
+                out.clear();
+                pending = 0;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        GameServer server = new GameServer(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+        System.out.println("Sudoku server listening on 127.0.0.1:" + server.port());
+        server.serve();
+    }
+}
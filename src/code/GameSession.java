@@ -0,0 +1,273 @@
+package code;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A single headless game: a board and its undo/redo history, driven by text commands.
+ * The history is a stack of {@link PersistentBoard} states, so a move shares every unchanged
+ * row with the previous state instead of deep-copying the board.
+ * Sessions are not thread-safe; the server hands each one to a single worker at a time.
+ *
+ * @see GameServer
+ */
+class GameSession {
+
+    /** Steps of the search allowed per command, so one hard board cannot hold a worker for long. */
+    static final long SEARCH_STEPS = 500_000;
+
+    private PersistentBoard[] history = new PersistentBoard[16];
+    /** Index of the current state in history. */
+    private int current;
+    /** Index of the last state that can be redone. */
+    private int last;
+
+    /**
+     * Create a session holding an empty 4x4 board until the first NEW command.
+     */
+    GameSession() {
+        history[0] = PersistentBoard.of(new Board(4));
+    }
+
+    /**
+     * Executes one protocol line and returns the reply.
+     * Replies start with "OK" or "ERR"; coordinates are 0-based row and column.
+     *
+     * @param line A command such as "NEW 9" or "NEW 9 &lt;seed&gt;", "SET 0 4 7", "DEL 0 4", "UNDO", "REDO",
+     *             "HINT", "SOLVE", "CAN", "CHECK 0 4" or "SHOW".
+     * @return The reply to send back to the client.
+     */
+    String execute(String line) {
+        String[] args = line.trim().split("\\s+");
+        try {
+            switch (args[0].toUpperCase()) {
+                case "NEW":
+                    return newGame(args.length > 1 ? Integer.parseInt(args[1]) : 9,
+                            args.length > 2 ? Long.parseLong(args[2]) : ThreadLocalRandom.current().nextLong());
+                case "SET":
+                    return set(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+                case "DEL":
+                    return delete(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+                case "UNDO":
+                    return undo();
+                case "REDO":
+                    return redo();
+                case "HINT":
+                    return hint();
+                case "SOLVE":
+                    return solve(SEARCH_STEPS);
+                case "CAN":
+                    return can();
+                case "CHECK":
+                    return check(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+                case "SHOW":
+                    return "OK " + show();
+                default:
+                    return "ERR unknown command " + args[0];
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return "ERR bad arguments";
+        }
+    }
+
+    /**
+     * Returns the current state. The result is immutable and may be kept or shared freely.
+     *
+     * @return Current board state.
+     */
+    PersistentBoard getBoard() {
+        return history[current];
+    }
+
+    /**
+     * Starts a new game with a freshly generated board and an empty history.
+     * The same size and seed always produce the same puzzle.
+     *
+     * @return The reply, holding the new board.
+     */
+    String newGame(int size, long seed) {
+        if (size != 4 && size != 9 && size != 16) {
+            return "ERR unsupported size " + size;
+        }
+        Board board = new Board(size);
+        board.generateBoard(seed);
+        return load(board);
+    }
+
+    /**
+     * Starts a new game on the given puzzle with an empty history.
+     *
+     * @return The reply, holding the new board.
+     */
+    String load(Board board) {
+        current = 0;
+        last = 0;
+        Arrays.fill(history, null);
+        history[0] = PersistentBoard.of(board);
+        return "OK " + show();
+    }
+
+    /**
+     * Stores number at row col as a new history entry.
+     *
+     * @return "OK valid" or "OK invalid" depending on the rule checks, or an error.
+     */
+    String set(int row, int col, int number) {
+        if (!inBounds(row, col) || number < 1 || number > getBoard().size()) {
+            return "ERR out of range";
+        }
+        if (!getBoard().isMutable(row, col)) {
+            return "ERR given";
+        }
+        push(getBoard().setElement(row, col, number));
+        return getBoard().isValid(row, col) ? "OK valid" : "OK invalid";
+    }
+
+    /**
+     * Clears the cell at row col as a new history entry.
+     *
+     * @return The reply.
+     */
+    String delete(int row, int col) {
+        if (!inBounds(row, col)) {
+            return "ERR out of range";
+        }
+        if (!getBoard().isMutable(row, col)) {
+            return "ERR given";
+        }
+        push(getBoard().deleteElement(row, col));
+        return "OK";
+    }
+
+    /**
+     * Moves back one history entry.
+     *
+     * @return The reply.
+     */
+    String undo() {
+        if (current == 0) {
+            return "ERR nothing to undo";
+        }
+        current--;
+        return "OK";
+    }
+
+    /**
+     * Moves forward one history entry.
+     *
+     * @return The reply.
+     */
+    String redo() {
+        if (current == last) {
+            return "ERR nothing to redo";
+        }
+        current++;
+        return "OK";
+    }
+
+    /**
+     * Tells whether the current state can be solved, searching within SEARCH_STEPS.
+     *
+     * @return "OK yes", "OK no", or "OK unknown" if the search ran out of steps.
+     */
+    private String can() {
+        Boolean solvable = getBoard().toBoard().solvableWithin(SEARCH_STEPS);
+        return solvable == null ? "OK unknown" : solvable ? "OK yes" : "OK no";
+    }
+
+    /**
+     * Solves a board in place if a solution is found within a number of search steps.
+     *
+     * @return null on success, or the error reply.
+     */
+    private static String solveWithin(Board board, long steps) {
+        Boolean solved = board.solveWithin(steps);
+        if (solved == null) {
+            return "ERR search gave up";
+        }
+        return solved ? null : "ERR unsolvable";
+    }
+
+    /**
+     * Reveals the solution digit of the first empty cell.
+     */
+    private String hint() {
+        PersistentBoard board = getBoard();
+        Board solved = board.toBoard();
+        String error = solveWithin(solved, SEARCH_STEPS);
+        if (error != null) {
+            return error;
+        }
+        for (int row = 0; row < board.size(); row++) {
+            for (int col = 0; col < board.size(); col++) {
+                if (board.getElement(row, col) == 0) {
+                    return String.format("OK %d %d %d", row, col, solved.getElement(row, col));
+                }
+            }
+        }
+        return "ERR board full";
+    }
+
+    /**
+     * Tells whether the number at row col rules out every solution of the puzzle.
+     *
+     * @return "OK wrong" or "OK right", "OK right" also for empty cells and givens, or
+     * "OK unknown" if the search ran out of steps.
+     */
+    String check(int row, int col) {
+        if (!inBounds(row, col)) {
+            return "ERR out of range";
+        }
+        Boolean wrong = getBoard().isEntryWrong(row, col, SEARCH_STEPS);
+        return wrong == null ? "OK unknown" : wrong ? "OK wrong" : "OK right";
+    }
+
+    /**
+     * Fills the board with a solution as a new history entry.
+     *
+     * @param steps The search steps allowed, or Long.MAX_VALUE for no limit, as when
+     *              replaying a journal, whose moves must all be repeated.
+     * @return The reply, holding the solved board.
+     */
+    String solve(long steps) {
+        Board test = getBoard().toBoard();
+        String error = solveWithin(test, steps);
+        if (error != null) {
+            return error;
+        }
+        push(PersistentBoard.of(test));
+        return "OK " + show();
+    }
+
+    /**
+     * Prints the board on one line in row-major order, using '.' for empty cells.
+     */
+    private String show() {
+        PersistentBoard board = getBoard();
+        StringBuilder sb = new StringBuilder(board.size() * board.size());
+        for (int row = 0; row < board.size(); row++) {
+            for (int col = 0; col < board.size(); col++) {
+                sb.append(GridText.symbol(board.getElement(row, col)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean inBounds(int row, int col) {
+        return row >= 0 && col >= 0 && row < getBoard().size() && col < getBoard().size();
+    }
+
+    /**
+     * Makes state the current history entry, discarding anything that could be redone.
+     */
+    private void push(PersistentBoard state) {
+        if (++current == history.length) {
+            history = Arrays.copyOf(history, history.length * 2);
+        }
+        history[current] = state;
+        if (last > current) {
+            Arrays.fill(history, current + 1, last + 1, null);
+        }
+        last = current;
+    }
+}
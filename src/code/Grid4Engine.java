@@ -0,0 +1,152 @@
+package code;
+
+/**
+ * Answers every question about classic 4x4 boards from a table of all 288 valid grids.
+ * Each grid is one int with 2 bits per cell, the number minus one, cell k at bits 2k and 2k+1.
+ * A board becomes a mask of its filled cells and the value they must hold, and a grid fits
+ * the board when (grid &amp; mask) == value, so solving, counting and checking are a scan of
+ * 288 ints with no search, threads or allocation.
+ * Grids are listed in row-major lexicographic order, so the first that fits is the solution
+ * the back-tracking search would find.
+ */
+final class Grid4Engine implements SolvingEngine {
+
+    static final Grid4Engine INSTANCE = new Grid4Engine();
+
+    private static final int SIZE = 4;
+    private static final int[] GRIDS = new int[288];
+    /** The digits of every grid, one byte per cell, shared as solutions of generated boards. */
+    private static final byte[][] DIGITS = new byte[GRIDS.length][];
+
+    static {
+        int count = fill(0, 0, new int[3 * SIZE], 0);
+        if (count != GRIDS.length) {
+            throw new AssertionError("Found " + count + " 4x4 grids");
+        }
+        for (int g = 0; g < GRIDS.length; g++) {
+            DIGITS[g] = new byte[SIZE * SIZE];
+            for (int cell = 0; cell < SIZE * SIZE; cell++) {
+                DIGITS[g][cell] = (byte) ((GRIDS[g] >>> 2 * cell & 3) + 1);
+            }
+        }
+    }
+
+    private Grid4Engine() {
+    }
+
+    /**
+     * Lists the grids completing a partial one in lexicographic order.
+     *
+     * @param cell  The next cell to fill.
+     * @param grid  The cells filled so far.
+     * @param used  Numbers used by each row, column and box, as bitmasks.
+     * @param count Grids found before this call.
+     * @return Grids found including this call's.
+     */
+    private static int fill(int cell, int grid, int[] used, int count) {
+        if (cell == SIZE * SIZE) {
+            GRIDS[count] = grid;
+            return count + 1;
+        }
+        int row = cell / SIZE, col = cell % SIZE, box = SIZE * 2 + row / 2 * 2 + col / 2;
+        for (int num = 0; num < SIZE; num++) {
+            int bit = 1 << num;
+            if (((used[row] | used[SIZE + col] | used[box]) & bit) == 0) {
+                used[row] |= bit;
+                used[SIZE + col] |= bit;
+                used[box] |= bit;
+                count = fill(cell + 1, grid | num << 2 * cell, used, count);
+                used[row] &= ~bit;
+                used[SIZE + col] &= ~bit;
+                used[box] &= ~bit;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns whether a layout is the classic 4x4 one this table describes.
+     *
+     * @param layout The layout to check.
+     * @return True for classic 4x4 layouts.
+     */
+    static boolean supports(Layout layout) {
+        return layout.isClassic() && layout.size() == SIZE;
+    }
+
+    @Override
+    public boolean solve(Board board) {
+        int g = first(board);
+        if (g < 0) {
+            return false;
+        }
+        for (int cell = 0; cell < SIZE * SIZE; cell++) {
+            if (board.getElement(cell / SIZE, cell % SIZE) == 0) {
+                board.load(cell / SIZE, cell % SIZE, DIGITS[g][cell], true, false);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first grid, in lexicographic order, that fits the numbers on a board.
+     *
+     * @param board A classic 4x4 board.
+     * @return The index of the grid, or -1 if the board cannot be solved.
+     */
+    static int first(Board board) {
+        long key = key(board);
+        int mask = (int) (key >>> 32), value = (int) key;
+        for (int g = 0; g < GRIDS.length; g++) {
+            if ((GRIDS[g] & mask) == value) {
+                return g;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Counts the grids that fit the numbers on a board.
+     *
+     * @param board A classic 4x4 board.
+     * @param limit The count at which to stop.
+     * @return The number of solutions, at most limit.
+     */
+    static long count(Board board, long limit) {
+        long key = key(board);
+        int mask = (int) (key >>> 32), value = (int) key;
+        long found = 0;
+        for (int g = 0; g < GRIDS.length && found < limit; g++) {
+            if ((GRIDS[g] & mask) == value) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the digits of a grid in row-major order. The array is shared and must not be
+     * modified.
+     *
+     * @param grid The index of the grid.
+     * @return One byte per cell.
+     */
+    static byte[] digits(int grid) {
+        return DIGITS[grid];
+    }
+
+    /**
+     * Packs the filled cells of a board: the mask in the high word, the values in the low one.
+     */
+    private static long key(Board board) {
+        int mask = 0, value = 0;
+        for (int cell = 0; cell < SIZE * SIZE; cell++) {
+            int num = board.getElement(cell / SIZE, cell % SIZE);
+            if (num != 0) {
+                mask |= 3 << 2 * cell;
+                value |= num - 1 << 2 * cell;
+            }
+        }
+        return (long) mask << 32 | value & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,102 @@
+package code;
+
+/**
+ * The single-line text form of a grid: the cells in row-major order, one character each.
+ * Empty cells are '.' or '0', digits 1-9 are '1'-'9', 10-35 are 'A'-'Z' and 36-61 are 'a'-'z',
+ * so a 9x9 line is the usual 81-character puzzle string. The size is the square root of the
+ * line length.
+ */
+final class GridText {
+
+    private static final String SYMBOLS =
+            ".123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    private GridText() {
+    }
+
+    /**
+     * Decodes one cell character.
+     *
+     * @param c The character, as a byte or char.
+     * @return The digit, 0 for an empty cell, or -1 if c is not a cell character.
+     */
+    static int digit(int c) {
+        if (c >= '1' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 10;
+        } else if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 36;
+        } else if (c == '.' || c == '0') {
+            return 0;
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes one digit, 0 being an empty cell.
+     *
+     * @param num The digit.
+     * @return The cell character.
+     */
+    static char symbol(int num) {
+        return SYMBOLS.charAt(num);
+    }
+
+    /**
+     * Returns the board size for a line of the given number of cells.
+     *
+     * @param cells The number of cells on the line.
+     * @return The size, or -1 if cells is not a square.
+     */
+    static int sizeOf(int cells) {
+        int size = (int) Math.round(Math.sqrt(cells));
+        return size > 0 && size * size == cells ? size : -1;
+    }
+
+    /**
+     * Writes the digits of a board as a single line.
+     *
+     * @param board The board to encode.
+     * @return The text form of the board.
+     */
+    static String encode(Board board) {
+        StringBuilder sb = new StringBuilder(board.size() * board.size());
+        for (int row = 0; row < board.size(); row++) {
+            for (int col = 0; col < board.size(); col++) {
+                sb.append(symbol(board.getElement(row, col)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads a puzzle line into a new board. Every digit on the line becomes a given number.
+     * Anything after the first whitespace character is ignored.
+     *
+     * @param line The text form of the puzzle.
+     * @return The decoded board.
+     * @throws IllegalArgumentException if the line is not a square grid of cell characters.
+     */
+    static Board decode(CharSequence line) {
+        int length = 0;
+        while (length < line.length() && !Character.isWhitespace(line.charAt(length))) {
+            length++;
+        }
+        int size = sizeOf(length);
+        if (size < 0) {
+            throw new IllegalArgumentException("Not a square grid: " + length + " cells");
+        }
+        Board board = new Board(size);
+        for (int i = 0; i < length; i++) {
+            int num = digit(line.charAt(i));
+            if (num < 0 || num > size) {
+                throw new IllegalArgumentException("Bad cell '" + line.charAt(i) + "' at " + i);
+            }
+            if (num != 0) {
+                board.load(i / size, i % size, num, true, true);
+            }
+        }
+        return board;
+    }
+}
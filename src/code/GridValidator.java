@@ -0,0 +1,171 @@
+package code;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Full verification of completed grids: every row, column and sub-grid must hold each digit
+ * exactly once. Units are checked with one bitmask per unit, so a grid is validated in a
+ * single pass over its cells.
+ * Instances reuse their mask arrays and are meant for one thread; the batch mode validates
+ * a file of grids in {@link GridText} form, one per line.
+ *
+ * Usage: java -cp Sudoku.jar code.GridValidator grids.txt
+ */
+class GridValidator {
+
+    private final int size;
+    private final int box;
+    private final long full;
+    private final long[] rows;
+    private final long[] cols;
+    private final long[] boxes;
+
+    /**
+     * Create a validator for grids of the given size.
+     *
+     * @param size Number of rows/columns, a perfect square.
+     * @throws IllegalArgumentException if size is not a perfect square.
+     */
+    GridValidator(int size) {
+        if (!hasBoxes(size)) {
+            throw new IllegalArgumentException("No square sub-grids for size " + size);
+        }
+        this.size = size;
+        this.box = (int) Math.sqrt(size);
+        this.full = (1L << (size + 1)) - 2;
+        this.rows = new long[size];
+        this.cols = new long[size];
+        this.boxes = new long[size];
+    }
+
+    /**
+     * Returns whether grids of a size have square sub-grids, e.g. 3x3 boxes for 9x9.
+     *
+     * @param size Number of rows/columns.
+     * @return True if size is a perfect square from 1 to 61.
+     */
+    static boolean hasBoxes(int size) {
+        int box = (int) Math.round(Math.sqrt(size));
+        return size >= 1 && size <= 61 && box * box == size;
+    }
+
+    /**
+     * Validates a grid given in row-major order.
+     *
+     * @param cells The digits of the grid, 0 for empty cells.
+     * @return -1 if the grid is a solution, otherwise the first invalid unit:
+     * rows are 0 to size-1, columns size to 2*size-1 and sub-grids 2*size to 3*size-1.
+     */
+    int check(int[] cells) {
+        Arrays.fill(rows, 0);
+        Arrays.fill(cols, 0);
+        Arrays.fill(boxes, 0);
+        for (int row = 0, i = 0; row < size; row++) {
+            int boxRow = row / box * box;
+            for (int col = 0; col < size; col++, i++) {
+                int num = cells[i];
+                // empty or out of range cells set bit 0, which no complete unit has
+                long bit = num > 0 && num <= size ? 1L << num : 1;
+                rows[row] |= bit;
+                cols[col] |= bit;
+                boxes[boxRow + col / box] |= bit;
+            }
+        }
+        // a unit of size cells covers all size digits only if none is repeated
+        for (int unit = 0; unit < size; unit++) {
+            if (rows[unit] != full) {
+                return unit;
+            }
+        }
+        for (int unit = 0; unit < size; unit++) {
+            if (cols[unit] != full) {
+                return size + unit;
+            }
+        }
+        for (int unit = 0; unit < size; unit++) {
+            if (boxes[unit] != full) {
+                return 2 * size + unit;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Describes a unit returned by {@link #check(int[])}.
+     *
+     * @param unit The unit index.
+     * @return A name such as "row 3", "column 1" or "box 8", counting from 1.
+     */
+    String describe(int unit) {
+        if (unit < size) {
+            return "row " + (unit + 1);
+        } else if (unit < 2 * size) {
+            return "column " + (unit - size + 1);
+        }
+        return "box " + (unit - 2 * size + 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        long lines = 0, failures = 0, line = 0;
+        GridValidator[] validators = new GridValidator[62];
+        int[] cells = new int[61 * 61];
+        int count = 0;
+        boolean skip = false, bad = false;
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+            for (int n = in.read(buffer); ; n = in.read(buffer)) {
+                // a final pass with n < 0 flushes a last line without a newline
+                for (int i = 0; i < Math.max(n, 1); i++) {
+                    int c = n < 0 ? '\n' : buffer[i];
+                    if (c == '\n') {
+                        line++;
+                        if (count > 0 || bad) {
+                            lines++;
+                            int size = GridText.sizeOf(count);
+                            if (bad || size < 0) {
+                                failures++;
+                                System.out.printf("line %d: not a grid%n", line);
+                            } else if (!hasBoxes(size)) {
+                                failures++;
+                                System.out.printf("line %d: invalid size %d, which has no square sub-grids%n", line, size);
+                            } else {
+                                if (validators[size] == null) {
+                                    validators[size] = new GridValidator(size);
+                                }
+                                int unit = validators[size].check(cells);
+                                if (unit >= 0) {
+                                    failures++;
+                                    System.out.printf("line %d: invalid %s%n", line, validators[size].describe(unit));
+                                }
+                            }
+                        }
+                        count = 0;
+                        skip = false;
+                        bad = false;
+                    } else if (!skip) {
+                        int num = GridText.digit(c);
+                        if (num >= 0 && count < cells.length) {
+                            cells[count++] = num;
+                        } else if (Character.isWhitespace(c)) {
+                            // whitespace ends the grid, so a line starting with it has none
+                            skip = true;
+                            bad |= count == 0 && c != '\r';
+                        } else {
+                            bad = true;
+                        }
+                    }
+                }
+                if (n < 0) {
+                    break;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d grids, %d invalid, %.2f s (%.0f grids/s)%n", lines, failures, seconds, lines / seconds);
+    }
+}
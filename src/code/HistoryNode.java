@@ -1,11 +1,19 @@
 package code;
 
 /** Class used to implement undo's and redo's.
+ * Each node owns a full copy of a mutable Board rather than a {@link PersistentBoard}: the
+ * number buttons, the win check and the solving engines read the region masks and counts
+ * that only Board keeps, so a persistent state would have to be turned back into a Board on
+ * every move, which costs more than the copy it saves (about 4 us against 2 us for 9x9).
+ * The panel draws from a PersistentBoard snapshot instead of the node's board, and
+ * structural sharing is used where states are only stored, in GameSession.
  * */
 class HistoryNode {
     private HistoryNode next;
     private HistoryNode previous;
     private Board board;
+    /** Result of the background solvability check of this state, or null until it finishes. */
+    private volatile Boolean solvable;
 
     /** Constructor that creates a non-head node by cloning the current board, sets the previous node, and sets previous'
      * node "next" pointer to this node.
@@ -29,6 +37,24 @@ class HistoryNode {
         this.previous = null;
     }
 
+    /**
+     * Returns whether this state can be solved, as found by the background check.
+     *
+     * @return True or false, or null while the check has not finished.
+     * */
+    Boolean getSolvable() {
+        return solvable;
+    }
+
+    /**
+     * Stores the result of the solvability check of this state. May be called from any thread.
+     *
+     * @param solvable Whether the board can be solved.
+     * */
+    void setSolvable(boolean solvable) {
+        this.solvable = solvable;
+    }
+
     /**
      * Return previous instance of a node.
      *
@@ -0,0 +1,147 @@
+package code;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Re-executes a {@link MoveJournal} against a headless {@link GameSession}.
+ * The journal is memory-mapped and decoded in place, so replay speed is bound by the
+ * moves themselves. Used to recover a crashed game, to turn real sessions into regression
+ * cases and to reproduce performance problems.
+ *
+ * Usage: java -cp Sudoku.jar code.JournalReplayer journal.bin [repetitions]
+ */
+final class JournalReplayer {
+
+    private JournalReplayer() {
+    }
+
+    /**
+     * Replays a whole journal.
+     *
+     * @param path The journal file.
+     * @param session The session the moves are applied to.
+     * @return The number of records replayed.
+     * @throws IOException if the file cannot be read, is not a journal or holds a bad record.
+     */
+    static long replay(Path path, GameSession session) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return replay(in, session);
+        }
+    }
+
+    /**
+     * Replays the records in a buffer, starting with the header.
+     */
+    private static long replay(ByteBuffer in, GameSession session) throws IOException {
+        if (in.remaining() < 5 || in.getInt() != MoveJournal.MAGIC || in.get() != MoveJournal.VERSION) {
+            throw new IOException("Not a move journal");
+        }
+        long records = 0;
+        try {
+            while (in.hasRemaining()) {
+                records += replayRecord(in, session);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated record at offset " + in.position(), e);
+        }
+        return records;
+    }
+
+    /**
+     * Replays the record at the position of a buffer. Cells and numbers are checked against
+     * the current board before they reach it, so a corrupt journal is reported instead of
+     * failing inside the board.
+     *
+     * @return 1, the number of records replayed.
+     */
+    private static int replayRecord(ByteBuffer in, GameSession session) throws IOException {
+        int at = in.position();
+        byte op = in.get();
+        int size = session.getBoard().size();
+        switch (op) {
+            case MoveJournal.NEW:
+                int newSize = in.get();
+                if (!GridValidator.hasBoxes(newSize)) {
+                    throw new IOException("Bad size " + newSize + " at offset " + at);
+                }
+                session.newGame(newSize, in.getLong());
+                break;
+            case MoveJournal.PUZZLE:
+                session.load(readPuzzle(in, at));
+                break;
+            case MoveJournal.SET:
+                int row = in.get(), col = in.get(), num = in.get();
+                if (!inBounds(row, col, size) || num < 1 || num > size) {
+                    throw new IOException("Bad move at offset " + at);
+                }
+                session.set(row, col, num);
+                break;
+            case MoveJournal.DEL:
+                row = in.get();
+                col = in.get();
+                if (!inBounds(row, col, size)) {
+                    throw new IOException("Bad move at offset " + at);
+                }
+                session.delete(row, col);
+                break;
+            case MoveJournal.UNDO:
+                session.undo();
+                break;
+            case MoveJournal.REDO:
+                session.redo();
+                break;
+            case MoveJournal.SOLVE:
+                session.solve(Long.MAX_VALUE);
+                break;
+            default:
+                throw new IOException("Bad record " + op + " at offset " + at);
+        }
+        return 1;
+    }
+
+    private static boolean inBounds(int row, int col, int size) {
+        return row >= 0 && col >= 0 && row < size && col < size;
+    }
+
+    private static Board readPuzzle(ByteBuffer in, int at) throws IOException {
+        int size = in.get();
+        if (!GridValidator.hasBoxes(size)) {
+            throw new IOException("Bad size " + size + " at offset " + at);
+        }
+        Board board = new Board(size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int num = in.get();
+                if (num < 0 || num > size) {
+                    throw new IOException("Bad number " + num + " at offset " + at);
+                }
+                if (num != 0) {
+                    board.load(row, col, num, true, true);
+                }
+            }
+        }
+        return board;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args[0]);
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        GameSession session = new GameSession();
+        long records = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++) {
+            records += replay(path, session);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d records in %.3f s (%.0f moves/s)%n", records, seconds, records / seconds);
+        System.out.println("Final board: " + session.execute("SHOW").substring(3));
+    }
+}
@@ -0,0 +1,239 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The rules of a board, given as data: a list of regions, each a list of cells that must not
+ * repeat a number, optionally with the sum its numbers must add up to (a killer cage).
+ * Classic boards have one region per row, column and sub-grid; variants add diagonals,
+ * replace the sub-grids with jigsaw shapes or add cages.
+ * Layouts are immutable, and the region index of every cell is computed once, so checking
+ * a move never involves any geometry.
+ *
+ * @see Board
+ */
+final class Layout {
+
+    private static final Map<Integer, Layout> CLASSIC = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final int[][] regionCells;
+    private final int[] regionSums;
+    private final int[][] cellRegions;
+    private final boolean classic;
+    private final boolean sums;
+    private final long salt;
+
+    private Layout(int size, List<int[]> regions, List<Integer> sums, boolean classic) {
+        this.size = size;
+        this.regionCells = regions.toArray(new int[0][]);
+        this.regionSums = new int[sums.size()];
+        for (int r = 0; r < regionSums.length; r++) {
+            regionSums[r] = sums.get(r);
+        }
+        int[] counts = new int[size * size];
+        for (int[] cells : regionCells) {
+            for (int cell : cells) {
+                counts[cell]++;
+            }
+        }
+        this.cellRegions = new int[size * size][];
+        for (int cell = 0; cell < counts.length; cell++) {
+            cellRegions[cell] = new int[counts[cell]];
+            counts[cell] = 0;
+        }
+        for (int r = 0; r < regionCells.length; r++) {
+            for (int cell : regionCells[r]) {
+                cellRegions[cell][counts[cell]++] = r;
+            }
+        }
+        this.classic = classic;
+        this.sums = Arrays.stream(regionSums).anyMatch(sum -> sum != 0);
+        long salt = 0;
+        if (!classic) {
+            salt = Arrays.deepHashCode(regionCells) * 0x9E3779B97F4A7C15L + Arrays.hashCode(regionSums);
+        }
+        this.salt = salt;
+    }
+
+    /**
+     * Returns the layout of a classic board: rows, columns and square sub-grids.
+     *
+     * @param size Number of rows/columns, a perfect square.
+     * @return The shared classic layout of that size.
+     */
+    static Layout classic(int size) {
+        return CLASSIC.computeIfAbsent(size, s -> {
+            int box = (int) Math.sqrt(s);
+            int[][] shape = new int[s][s];
+            for (int row = 0; row < s; row++) {
+                for (int col = 0; col < s; col++) {
+                    shape[row][col] = row / box * box + col / box;
+                }
+            }
+            return build(s, shape, true);
+        });
+    }
+
+    /**
+     * Returns the layout of a jigsaw board: rows, columns and irregular regions of size cells.
+     *
+     * @param shape The region number, from 0 to size-1, of every cell.
+     * @return The jigsaw layout.
+     * @throws IllegalArgumentException if a region does not have exactly size cells.
+     */
+    static Layout jigsaw(int[][] shape) {
+        return build(shape.length, shape, false);
+    }
+
+    private static Layout build(int size, int[][] shape, boolean classic) {
+        List<int[]> regions = new ArrayList<>();
+        for (int row = 0; row < size; row++) {
+            int[] cells = new int[size];
+            for (int col = 0; col < size; col++) {
+                cells[col] = row * size + col;
+            }
+            regions.add(cells);
+        }
+        for (int col = 0; col < size; col++) {
+            int[] cells = new int[size];
+            for (int row = 0; row < size; row++) {
+                cells[row] = row * size + col;
+            }
+            regions.add(cells);
+        }
+        int[][] shapes = new int[size][size];
+        int[] filled = new int[size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int r = shape[row][col];
+                if (r < 0 || r >= size || filled[r] == size) {
+                    throw new IllegalArgumentException("Region " + r + " is not made of " + size + " cells");
+                }
+                shapes[r][filled[r]++] = row * size + col;
+            }
+        }
+        regions.addAll(Arrays.asList(shapes));
+        Integer[] sums = new Integer[regions.size()];
+        Arrays.fill(sums, 0);
+        return new Layout(size, regions, Arrays.asList(sums), classic);
+    }
+
+    /**
+     * Returns this layout with both main diagonals as extra regions (an X-Sudoku).
+     *
+     * @return The new layout.
+     */
+    Layout withDiagonals() {
+        int[] down = new int[size];
+        int[] up = new int[size];
+        for (int i = 0; i < size; i++) {
+            down[i] = i * size + i;
+            up[i] = i * size + (size - 1 - i);
+        }
+        return withRegion(down, 0).withRegion(up, 0);
+    }
+
+    /**
+     * Returns this layout with a killer cage: the cells may not repeat a number
+     * and must add up to sum once all of them are filled.
+     *
+     * @param sum The total of the cage.
+     * @param cells The cells of the cage, as row * size + col.
+     * @return The new layout.
+     */
+    Layout withCage(int sum, int... cells) {
+        return withRegion(cells.clone(), sum);
+    }
+
+    private Layout withRegion(int[] cells, int sum) {
+        List<int[]> regions = new ArrayList<>(Arrays.asList(regionCells));
+        List<Integer> sums = new ArrayList<>();
+        for (int s : regionSums) {
+            sums.add(s);
+        }
+        regions.add(cells);
+        sums.add(sum);
+        return new Layout(size, regions, sums, false);
+    }
+
+    /**
+     * Return the size of boards with this layout.
+     *
+     * @return Number of rows/columns.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether this is the plain rows, columns and square sub-grids layout.
+     *
+     * @return True for classic layouts.
+     */
+    boolean isClassic() {
+        return classic;
+    }
+
+    /**
+     * Return the number of regions.
+     *
+     * @return The region count.
+     */
+    int regions() {
+        return regionCells.length;
+    }
+
+    /**
+     * Returns the cells of a region, as row * size + col. The array must not be modified.
+     *
+     * @param region The region index.
+     * @return The cells of the region.
+     */
+    int[] cells(int region) {
+        return regionCells[region];
+    }
+
+    /**
+     * Returns the sum a region must add up to.
+     *
+     * @param region The region index.
+     * @return The required sum, or 0 if the region has no sum constraint.
+     */
+    int sum(int region) {
+        return regionSums[region];
+    }
+
+    /**
+     * Returns whether any region has a sum constraint.
+     *
+     * @return True for layouts with killer cages.
+     */
+    boolean hasSums() {
+        return sums;
+    }
+
+    /**
+     * Returns the regions a cell belongs to. The array must not be modified.
+     *
+     * @param cell The cell, as row * size + col.
+     * @return The region indexes.
+     */
+    int[] regionsOf(int cell) {
+        return cellRegions[cell];
+    }
+
+    /**
+     * Returns a value mixed into board hashes so that equal digits under different rules
+     * hash differently. It is 0 for classic layouts.
+     *
+     * @return The hash salt.
+     */
+    long salt() {
+        return salt;
+    }
+}
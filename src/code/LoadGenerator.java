@@ -0,0 +1,155 @@
+package code;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load generator for {@link GameServer}. Opens many sessions, plays random moves on them
+ * and prints throughput and latency percentiles.
+ * Each driver thread owns a share of the connections and sends one command to each in turn,
+ * so the number of open sessions is independent of the number of threads.
+ *
+ * Usage: java -cp Sudoku.jar code.LoadGenerator [sessions] [commands per session] [threads] [port]
+ * When no server is listening on the port an in-process server is started.
+ */
+class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : GameServer.DEFAULT_PORT;
+        if (!listening(port)) {
+            GameServer server = new GameServer(port);
+            Thread thread = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "game-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        ExecutorService drivers = Executors.newFixedThreadPool(threads);
+        Future<?>[] results = new Future<?>[threads];
+        long[][] latencies = new long[threads][];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int share = sessions / threads + (t < sessions % threads ? 1 : 0);
+            int index = t;
+            results[t] = drivers.submit(() -> {
+                latencies[index] = drive(port, share, commands, new SplittableRandom(index));
+                return null;
+            });
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        drivers.shutdown();
+
+        int total = 0;
+        for (long[] l : latencies) {
+            total += l.length;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, all, pos, l.length);
+            pos += l.length;
+        }
+        Arrays.sort(all);
+        System.out.printf("%d sessions, %d commands in %.2f s: %.0f commands/s%n",
+                sessions, total, elapsed / 1e9, total / (elapsed / 1e9));
+        System.out.printf("latency us: p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n",
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99),
+                percentile(all, 0.999), all.length == 0 ? 0 : all[all.length - 1] / 1000);
+    }
+
+    /**
+     * Opens the given number of sessions and sends each of them the given number of commands.
+     *
+     * @return The latency of every command in nanoseconds.
+     */
+    private static long[] drive(int port, int sessions, int commands, SplittableRandom rand) throws IOException {
+        Socket[] sockets = new Socket[sessions];
+        BufferedReader[] readers = new BufferedReader[sessions];
+        OutputStream[] writers = new OutputStream[sessions];
+        long[] latencies = new long[sessions * commands];
+        int count = 0;
+        try {
+            for (int s = 0; s < sessions; s++) {
+                sockets[s] = new Socket("127.0.0.1", port);
+                sockets[s].setTcpNoDelay(true);
+                readers[s] = new BufferedReader(new InputStreamReader(sockets[s].getInputStream(), StandardCharsets.US_ASCII));
+                writers[s] = sockets[s].getOutputStream();
+            }
+            for (int c = 0; c < commands; c++) {
+                for (int s = 0; s < sessions; s++) {
+                    String command = c == 0 ? "NEW 9" : randomCommand(rand);
+                    long start = System.nanoTime();
+                    writers[s].write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+                    if (readers[s].readLine() == null) {
+                        throw new IOException("Server closed the connection");
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    /**
+     * Picks a command, mostly cell edits with the occasional undo, redo, hint, entry
+     * check or solvability check.
+     */
+    private static String randomCommand(SplittableRandom rand) {
+        int roll = rand.nextInt(100);
+        if (roll < 60) {
+            return String.format("SET %d %d %d", rand.nextInt(9), rand.nextInt(9), rand.nextInt(9) + 1);
+        } else if (roll < 75) {
+            return String.format("DEL %d %d", rand.nextInt(9), rand.nextInt(9));
+        } else if (roll < 85) {
+            return "UNDO";
+        } else if (roll < 93) {
+            return "REDO";
+        } else if (roll < 95) {
+            return "HINT";
+        } else if (roll < 97) {
+            return String.format("CHECK %d %d", rand.nextInt(9), rand.nextInt(9));
+        }
+        return "CAN";
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1000;
+    }
+
+    private static boolean listening(int port) {
+        try (Socket probe = new Socket("127.0.0.1", port)) {
+            return probe.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
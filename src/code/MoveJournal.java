@@ -0,0 +1,133 @@
+package code;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only binary log of the moves of a game.
+ * The file starts with the magic "SDKJ" and a version byte, followed by records made of a
+ * one-byte opcode and its operands:
+ * NEW size seed(8 bytes), PUZZLE size cells(size*size bytes, the given numbers), SET row col num,
+ * DEL row col, UNDO, REDO and SOLVE.
+ * Records are collected in a buffer and written by {@link #flush()}.
+ *
+ * @see JournalReplayer
+ */
+class MoveJournal implements Closeable {
+
+    static final int MAGIC = 0x53444B4A;
+    static final byte VERSION = 1;
+
+    static final byte NEW = 1;
+    static final byte PUZZLE = 2;
+    static final byte SET = 3;
+    static final byte DEL = 4;
+    static final byte UNDO = 5;
+    static final byte REDO = 6;
+    static final byte SOLVE = 7;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 13);
+
+    /**
+     * Opens a journal for appending, writing the header if the file is new or empty.
+     *
+     * @param path The journal file.
+     */
+    MoveJournal(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            buffer.putInt(MAGIC).put(VERSION);
+        }
+    }
+
+    /**
+     * Records the start of a game generated from a seed.
+     */
+    void newGame(int size, long seed) throws IOException {
+        reserve(10).put(NEW).put((byte) size).putLong(seed);
+    }
+
+    /**
+     * Records the start of a game on a puzzle that was not generated from a seed.
+     */
+    void puzzle(Board board) throws IOException {
+        int size = board.size();
+        ByteBuffer out = reserve(2 + size * size).put(PUZZLE).put((byte) size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                out.put(board.isMutable(row, col) ? 0 : (byte) board.getElement(row, col));
+            }
+        }
+    }
+
+    /**
+     * Records a number stored into a cell.
+     */
+    void set(int row, int col, int num) throws IOException {
+        reserve(4).put(SET).put((byte) row).put((byte) col).put((byte) num);
+    }
+
+    /**
+     * Records a cell being cleared.
+     */
+    void delete(int row, int col) throws IOException {
+        reserve(3).put(DEL).put((byte) row).put((byte) col);
+    }
+
+    /**
+     * Records an undo.
+     */
+    void undo() throws IOException {
+        reserve(1).put(UNDO);
+    }
+
+    /**
+     * Records a redo.
+     */
+    void redo() throws IOException {
+        reserve(1).put(REDO);
+    }
+
+    /**
+     * Records the board being solved.
+     */
+    void solve() throws IOException {
+        reserve(1).put(SOLVE);
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Makes room for a record of the given length, flushing if the buffer is full.
+     */
+    private ByteBuffer reserve(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,228 @@
+package code;
+
+/**
+ * An immutable Sudoku board. Every move returns a new board that shares all unchanged rows
+ * with its predecessor, so a move allocates one row and the row table, O(sqrt(n)) for n cells.
+ * Instances can be handed to other threads and kept in history without copying or locking.
+ * {@link GameSession} keeps its history in them, and {@link BoardPanel} draws from one, so
+ * painting never reads the mutable board a move is being made on.
+ *
+ * @see Board
+ */
+final class PersistentBoard {
+
+    /** Cell flag set when the entry passed the rule checks. */
+    private static final int VALID = 1 << 8;
+    /** Cell flag set for numbers that are part of the puzzle. */
+    private static final int GIVEN = 1 << 9;
+    private static final int DIGIT = 0xFF;
+
+    private final Layout layout;
+    private final int size;
+    private final int[][] rows;
+    private final long hash;
+    /** Solution kept from the generator, shared by every version, or null. */
+    private final byte[] solution;
+
+    private PersistentBoard(Layout layout, int[][] rows, long hash, byte[] solution) {
+        this.layout = layout;
+        this.size = layout.size();
+        this.rows = rows;
+        this.hash = hash;
+        this.solution = solution;
+    }
+
+    /**
+     * Create an immutable copy of a mutable board.
+     *
+     * @param board The board to copy.
+     * @return A persistent board holding the same digits, flags, hash and solution.
+     */
+    static PersistentBoard of(Board board) {
+        int size = board.size();
+        int[][] rows = new int[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                rows[row][col] = board.getElement(row, col)
+                        | (board.isValid(row, col) ? VALID : 0)
+                        | (board.isMutable(row, col) ? 0 : GIVEN);
+            }
+        }
+        return new PersistentBoard(board.layout(), rows, board.hash(), board.solution());
+    }
+
+    /**
+     * Create a mutable board with the same contents, e.g. to run the solver on.
+     *
+     * @return A new Board instance.
+     */
+    Board toBoard() {
+        Board board = new Board(layout);
+        board.setSolution(solution);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int cell = rows[row][col];
+                board.load(row, col, cell & DIGIT, (cell & VALID) != 0, (cell & GIVEN) != 0);
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Return the size of this board.
+     *
+     * @return Returns the size of the board.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the Zobrist hash of the digits on the board, equal to that of the matching Board.
+     *
+     * @return Hash of this state.
+     */
+    long hash() {
+        return hash;
+    }
+
+    /**
+     * This retrieves the element at position row col.
+     *
+     * @param row This is the row in the matrix.
+     * @param col This is the column in the matrix.
+     * @return Returns the element at the index.
+     */
+    int getElement(int row, int col) {
+        return rows[row][col] & DIGIT;
+    }
+
+    /**
+     * This returns whether the value was a valid insertion.
+     *
+     * @return Returns the flag stored at the index.
+     */
+    boolean isValid(int row, int col) {
+        return (rows[row][col] & VALID) != 0;
+    }
+
+    /**
+     * This returns whether an element in the board may be changed.
+     *
+     * @return False for numbers that are part of the puzzle.
+     */
+    boolean isMutable(int row, int col) {
+        return (rows[row][col] & GIVEN) == 0;
+    }
+
+    /**
+     * Returns the numbers that can still be placed in an empty cell without breaking a rule
+     * of its row, column or region, as in {@link Board#candidates(int, int)}.
+     *
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return Bit mask of the candidates, bit n set for number n; 0 for a filled cell.
+     */
+    long candidates(int row, int col) {
+        if (getElement(row, col) != 0) {
+            return 0;
+        }
+        long used = 0;
+        for (int r : layout.regionsOf(row * size + col)) {
+            for (int cell : layout.cells(r)) {
+                used |= 1L << (rows[cell / size][cell % size] & DIGIT);
+            }
+        }
+        return ~used & ((1L << (size + 1)) - 2);
+    }
+
+    /**
+     * Returns whether the number in a cell cannot be part of any solution of the puzzle.
+     * Numbers that match the stored solution are answered without building a board.
+     *
+     * @see Board#isEntryWrong(int, int, long)
+     *
+     * @param row   The row of the cell.
+     * @param col   The column of the cell.
+     * @param steps The search steps allowed, or Long.MAX_VALUE for no limit.
+     * @return True for an entry that rules out every solution, or null if the search gave up.
+     */
+    Boolean isEntryWrong(int row, int col, long steps) {
+        int num = getElement(row, col);
+        if (num == 0 || (solution != null && solution[row * size + col] == num)) {
+            return false;
+        }
+        return toBoard().isEntryWrong(row, col, steps);
+    }
+
+    /**
+     * Returns a board with num stored at row col, validated with the same rules as
+     * {@link Board#setElement(int, int, int)}.
+     *
+     * @param row This is the row at which the number is inserted.
+     * @param col This is the column at which the number is inserted.
+     * @param num This is the number inserted into the matrix.
+     * @return The new board.
+     */
+    PersistentBoard setElement(int row, int col, int num) {
+        boolean valid = num > 0 && num <= size && isMutable(row, col) && allowed(row, col, num);
+        return with(row, col, num | (valid ? VALID : 0) | (rows[row][col] & GIVEN));
+    }
+
+    /**
+     * Returns a board with the element at row col set back to 0.
+     *
+     * @param row This is the row of the deleted number.
+     * @param col This is the column of the deleted number.
+     * @return The new board.
+     */
+    PersistentBoard deleteElement(int row, int col) {
+        return with(row, col, rows[row][col] & GIVEN);
+    }
+
+    /**
+     * Checks num against every region of a cell, including the sums of killer cages.
+     */
+    private boolean allowed(int row, int col, int num) {
+        for (int r : layout.regionsOf(row * size + col)) {
+            int sum = num;
+            boolean complete = true;
+            for (int cell : layout.cells(r)) {
+                int digit = rows[cell / size][cell % size] & DIGIT;
+                if (digit == num) {
+                    return false;
+                }
+                if (cell != row * size + col) {
+                    sum += digit;
+                    complete &= digit != 0;
+                }
+            }
+            int target = layout.sum(r);
+            if (target != 0 && (sum > target || (complete && sum != target))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the row table and the changed row, sharing every other row.
+     */
+    private PersistentBoard with(int row, int col, int cell) {
+        long[] keys = Board.zobristKeys(size);
+        int base = (row * size + col) * (size + 1);
+        int old = rows[row][col] & DIGIT;
+        int num = cell & DIGIT;
+        long newHash = hash;
+        if (old != 0) {
+            newHash ^= keys[base + old];
+        }
+        if (num != 0) {
+            newHash ^= keys[base + num];
+        }
+        int[][] newRows = rows.clone();
+        newRows[row] = rows[row].clone();
+        newRows[row][col] = cell;
+        return new PersistentBoard(layout, newRows, newHash, solution);
+    }
+}
@@ -0,0 +1,342 @@
+package code;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Headless command that fills a file with graded puzzles that have exactly one solution.
+ * Workers on every core each take the next puzzle number and its own random generator from a
+ * {@link BoardGenerator}, generate a full grid, remove numbers while the solution stays unique
+ * and grade the result.
+ * Finished puzzles go through a bounded queue to a single writer that appends them in batches.
+ *
+ * Each output line is "puzzle band number", tab separated, the puzzle in {@link GridText} form.
+ * Puzzle number i depends only on the seed, so an interrupted run is resumed by running the
+ * same command again: numbers already in the file are skipped and a partial last line is dropped.
+ *
+ * Usage: java -cp Sudoku.jar code.PuzzleFactory size count output.txt [threads] [seed]
+ */
+class PuzzleFactory {
+
+    /** Names of the difficulty bands, indexed by grade. */
+    static final String[] BANDS = {"easy", "medium", "hard", "expert"};
+    static final int EASY = 0, MEDIUM = 1, HARD = 2, EXPERT = 3;
+
+    /** Lines written between flushes of the output file. */
+    private static final int BATCH = 256;
+    /** Moves allowed for annealing a full grid before falling back to the generator. */
+    private static final long ANNEAL_MOVES = 50_000_000;
+
+    private PuzzleFactory() {
+    }
+
+    /**
+     * Makes a minimal puzzle with a unique solution: removing any of its numbers would
+     * allow a second solution.
+     *
+     * @param size Size of the board.
+     * @param rand Random numbers owned by the calling thread.
+     * @return The puzzle, its numbers marked as given.
+     */
+    static Board makePuzzle(int size, SplittableRandom rand) {
+        Board full = new Board(size);
+        // large full grids come from annealing an empty board, one start per worker thread
+        if (size < 16 || !new AnnealingEngine(ANNEAL_MOVES, 1, rand.nextLong()).solve(full)) {
+            do {
+                full.reset(size);
+                full.generateBoard(rand);
+            } while (!full.solve());
+        }
+        // the generator marks its numbers as given, which the search would never change,
+        // so numbers are carved from a copy where every cell can be changed
+        Board grid = new Board(full.layout());
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                grid.load(row, col, full.getElement(row, col), true, false);
+            }
+        }
+        int[] cells = new int[size * size];
+        for (int i = 0; i < cells.length; i++) {
+            int j = rand.nextInt(i + 1);
+            cells[i] = cells[j];
+            cells[j] = i;
+        }
+        for (int cell : cells) {
+            int row = cell / size, col = cell % size;
+            int num = grid.getElement(row, col);
+            grid.deleteElement(row, col);
+            if (grid.countSolutions(2) != 1) {
+                grid.load(row, col, num, true, false);
+            }
+        }
+        Board puzzle = new Board(grid.layout());
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (grid.getElement(row, col) != 0) {
+                    puzzle.load(row, col, grid.getElement(row, col), true, true);
+                }
+            }
+        }
+        assert isMinimal(puzzle) : GridText.encode(puzzle);
+        return puzzle;
+    }
+
+    /**
+     * Checks that a puzzle has a unique solution and that none of its numbers can be removed
+     * without allowing a second one.
+     *
+     * @param puzzle The puzzle to check, its numbers marked as given.
+     * @return Whether the puzzle is minimal.
+     */
+    static boolean isMinimal(Board puzzle) {
+        if (puzzle.cloneBoard().countSolutions(2) != 1) {
+            return false;
+        }
+        int size = puzzle.size();
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int num = puzzle.getElement(row, col);
+                if (num != 0) {
+                    Board test = puzzle.cloneBoard();
+                    test.load(row, col, 0, true, false);
+                    if (test.countSolutions(2) == 1) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Grades a puzzle with a unique solution. Easy puzzles fall to naked singles alone,
+     * medium ones also need hidden singles, and the rest are hard or expert depending on
+     * how much guessing a search needs.
+     *
+     * @param puzzle The puzzle to grade.
+     * @return One of EASY, MEDIUM, HARD or EXPERT.
+     */
+    static int grade(Board puzzle) {
+        if (fillSingles(puzzle.cloneBoard(), false)) {
+            return EASY;
+        }
+        if (fillSingles(puzzle.cloneBoard(), true)) {
+            return MEDIUM;
+        }
+        Board search = puzzle.cloneBoard();
+        search.countSolutions(2);
+        return search.searchNodes() <= 4L * puzzle.size() * puzzle.size() ? HARD : EXPERT;
+    }
+
+    /**
+     * Fills cells that have a single candidate (and, if hidden is set, numbers that fit in only
+     * one cell of a region) until no more can be found.
+     *
+     * @return Whether the board was completely filled.
+     */
+    private static boolean fillSingles(Board board, boolean hidden) {
+        int size = board.size();
+        Layout layout = board.layout();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            boolean full = true;
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    if (board.getElement(row, col) == 0) {
+                        long candidates = board.candidates(row, col);
+                        if (Long.bitCount(candidates) == 1) {
+                            board.setElement(row, col, Long.numberOfTrailingZeros(candidates));
+                            progress = true;
+                        } else {
+                            full = false;
+                        }
+                    }
+                }
+            }
+            if (full) {
+                return true;
+            }
+            for (int r = 0; hidden && !progress && r < layout.regions(); r++) {
+                long once = 0, twice = 0;
+                for (int cell : layout.cells(r)) {
+                    long candidates = board.candidates(cell / size, cell % size);
+                    twice |= once & candidates;
+                    once |= candidates;
+                }
+                long unique = once & ~twice;
+                for (int cell : layout.cells(r)) {
+                    long candidates = board.candidates(cell / size, cell % size) & unique;
+                    if (candidates != 0) {
+                        board.setElement(cell / size, cell % size, Long.numberOfTrailingZeros(candidates));
+                        progress = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the puzzle numbers already in an output file and truncates the file after the
+     * last complete record. A record is complete when its line ends in a newline and holds
+     * a puzzle, a band and a number; reading stops at the first line that does not.
+     */
+    private static BitSet resume(Path out) throws IOException {
+        BitSet done = new BitSet();
+        if (!Files.exists(out)) {
+            return done;
+        }
+        long complete = 0, at = 0;
+        StringBuilder line = new StringBuilder();
+        char[] buffer = new char[1 << 16];
+        try (Reader reader = Files.newBufferedReader(out, StandardCharsets.US_ASCII)) {
+            // US-ASCII decodes one char per byte, so chars read are file offsets
+            read:
+            for (int n = reader.read(buffer); n >= 0; n = reader.read(buffer)) {
+                for (int i = 0; i < n; i++, at++) {
+                    if (buffer[i] != '\n') {
+                        line.append(buffer[i]);
+                        continue;
+                    }
+                    int number = recordNumber(line.toString());
+                    if (number < 0) {
+                        break read;
+                    }
+                    done.set(number);
+                    complete = at + 1;
+                    line.setLength(0);
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.WRITE)) {
+            channel.truncate(Math.min(complete, channel.size()));
+        }
+        return done;
+    }
+
+    /**
+     * Returns the puzzle number of an output line, or -1 if the line is not a record.
+     */
+    private static int recordNumber(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 3 || fields[0].isEmpty() || !Arrays.asList(BANDS).contains(fields[1])) {
+            return -1;
+        }
+        try {
+            return Math.max(-1, Integer.parseInt(fields[2]));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = Integer.parseInt(args[0]);
+        int count = Integer.parseInt(args[1]);
+        Path out = Paths.get(args[2]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        if (!GridValidator.hasBoxes(size) || count < 0 || threads < 1) {
+            System.err.println("Usage: PuzzleFactory size count output.txt [threads] [seed], "
+                    + "size a square such as 4, 9 or 16, threads at least 1");
+            System.exit(2);
+        }
+
+        BitSet done = resume(out);
+        int remaining = count - done.get(0, count).cardinality();
+        System.out.printf("%d puzzles already in %s, %d to go%n", count - remaining, out, remaining);
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(4 * BATCH);
+        BoardGenerator tasks = new BoardGenerator(seed, count);
+        // the first error of a worker, which stops the run since its puzzle would never come
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    for (BoardGenerator.Task task = tasks.next(); task != null; task = tasks.next()) {
+                        if (done.get(task.index)) {
+                            continue;
+                        }
+                        Board puzzle = makePuzzle(size, task.rand);
+                        queue.put(GridText.encode(puzzle) + "\t" + BANDS[grade(puzzle)] + "\t" + task.index);
+                    }
+                } catch (InterruptedException | java.util.concurrent.CancellationException e) {
+                    // stopping
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "puzzle-worker-" + t);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+
+        // the writer is stopped with a flag, since interrupting it would close the file channel
+        Thread writer = Thread.currentThread();
+        AtomicBoolean stopping = new AtomicBoolean();
+        Thread hook = new Thread(() -> {
+            stopping.set(true);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        long start = System.nanoTime(), lastReport = start;
+        int written = 0;
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+             Writer file = Channels.newWriter(channel, StandardCharsets.US_ASCII.newEncoder(), 1 << 16)) {
+            int batch = 0;
+            while (written < remaining && failure.get() == null) {
+                if (stopping.get()) {
+                    System.out.println("Interrupted, run the same command again to resume.");
+                    break;
+                }
+                String line = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (line != null) {
+                    file.write(line);
+                    file.write('\n');
+                    written++;
+                    if (++batch == BATCH) {
+                        file.flush();
+                        batch = 0;
+                    }
+                }
+                long now = System.nanoTime();
+                if (now - lastReport > TimeUnit.SECONDS.toNanos(1)) {
+                    lastReport = now;
+                    System.out.printf("%d/%d puzzles, %.1f puzzles/s%n", written, remaining, written / ((now - start) / 1e9));
+                }
+            }
+        }
+        if (written == remaining || failure.get() != null) {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Wrote %d puzzles in %.1f s (%.1f puzzles/s)%n", written, seconds, written / seconds);
+        if (failure.get() != null) {
+            System.err.println("A worker failed, run the same command again to resume:");
+            failure.get().printStackTrace();
+            System.exit(1);
+        }
+    }
+}
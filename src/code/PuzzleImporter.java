@@ -0,0 +1,190 @@
+package code;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads large files of puzzle lines straight from memory-mapped windows of the file.
+ * Each line is a grid in {@link GridText} form, optionally followed by a tab and a tag such as
+ * the difficulty band written by {@link PuzzleFactory}. As in {@link GridText#decode}, the grid
+ * and the tag end at the first whitespace and anything after them is ignored.
+ * Blank lines and lines starting with '#' are skipped. Each line is scanned once: cells are
+ * decoded byte by byte through a table into one reused digit array and tags are matched
+ * against their bytes, so no String or other object is made per line and reading millions of
+ * puzzles is bound by the disk.
+ *
+ * The file is mapped in windows of at most WINDOW bytes; a line cut by the end of a window is
+ * read again at the start of the next one.
+ */
+final class PuzzleImporter {
+
+    /**
+     * Receives each puzzle read.
+     */
+    interface Sink {
+        /**
+         * Takes one puzzle. The digit array is reused for the next line and must be copied
+         * to be kept.
+         *
+         * @param digits The cells in row-major order, 0 for empty, in the first size * size bytes.
+         * @param size   The size of the board.
+         * @param tag    The index of the line's tag, or -1 if the line has none.
+         * @throws IOException to stop the import.
+         */
+        void accept(byte[] digits, int size, int tag) throws IOException;
+    }
+
+    private static final int WINDOW = 1 << 30;
+    /** Digit of each byte value, -1 for bytes that are not cell characters. */
+    private static final byte[] CELLS = new byte[256];
+
+    static {
+        for (int c = 0; c < CELLS.length; c++) {
+            CELLS[c] = (byte) GridText.digit(c);
+        }
+    }
+
+    private final byte[][] tags;
+    private final byte[] digits = new byte[61 * 61];
+    /** Puzzles handed to the sink by the current read. */
+    private long count;
+
+    /**
+     * Creates an importer recognising a list of tags.
+     *
+     * @param tags The tags a line may carry, matched exactly; a tag not listed is an error.
+     */
+    PuzzleImporter(String... tags) {
+        this.tags = new byte[tags.length][];
+        for (int t = 0; t < tags.length; t++) {
+            this.tags[t] = tags[t].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Reads every puzzle of a file in order.
+     *
+     * @param file The file to read.
+     * @param sink Receives each puzzle.
+     * @return The number of puzzles read.
+     * @throws IOException if the file cannot be read or a line is not a puzzle.
+     */
+    long read(Path file, Sink sink) throws IOException {
+        count = 0;
+        long line = 1;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long start = 0; start < size; ) {
+                int limit = (int) Math.min(WINDOW, size - start);
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, start, limit);
+                boolean last = start + limit == size;
+                int at = 0;
+                while (at < limit) {
+                    int end = parse(data, at, limit, last, line, sink);
+                    if (end < 0) {
+                        if (at == 0) {
+                            throw new IOException("Line " + line + " too long");
+                        }
+                        break;
+                    }
+                    at = end + 1;
+                    line++;
+                }
+                start += Math.min(at, limit);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Decodes the line starting at at in one pass, handing it to the sink unless it is empty
+     * or a comment.
+     *
+     * @return The index of the line break ending the line, limit for the last line of the
+     * file, or -1 if the window ends within the line.
+     */
+    private int parse(MappedByteBuffer data, int at, int limit, boolean last, long line, Sink sink)
+            throws IOException {
+        int end = at, cells = 0, max = 0, tag = -1;
+        byte c = 0;
+        if (data.get(at) == '#') {
+            while (end < limit && data.get(end) != '\n') {
+                end++;
+            }
+            return end < limit || last ? end : -1;
+        }
+        // like GridText.decode, the grid ends at the first whitespace
+        while (end < limit && !isWhitespace(c = data.get(end))) {
+            int num = CELLS[c & 0xFF];
+            if (num < 0 || cells == digits.length) {
+                throw new IOException("Line " + line + ": bad cell " + cells);
+            }
+            digits[cells++] = (byte) num;
+            max = Math.max(max, num);
+            end++;
+        }
+        if (cells > 0 && c == '\t') {
+            int from = ++end;
+            while (end < limit && !isWhitespace(data.get(end))) {
+                end++;
+            }
+            if (end < limit || last) {
+                tag = match(data, from, end);
+                if (tag < 0) {
+                    throw new IOException("Line " + line + ": unknown tag");
+                }
+            }
+        }
+        boolean text = false;
+        while (end < limit && data.get(end) != '\n') {
+            text |= !isWhitespace(data.get(end));
+            end++;
+        }
+        if (end == limit && !last) {
+            return -1;
+        }
+        if (cells == 0 && text) {
+            throw new IOException("Line " + line + ": not a square grid");
+        } else if (cells > 0) {
+            int size = GridText.sizeOf(cells);
+            if (size < 0) {
+                throw new IOException("Line " + line + ": not a square grid");
+            } else if (max > size) {
+                throw new IOException("Line " + line + ": number " + max + " on a " + size + "x" + size + " grid");
+            }
+            count++;
+            sink.accept(digits, size, tag);
+        }
+        return end;
+    }
+
+    /**
+     * Returns whether a byte is an ASCII character that {@link Character#isWhitespace(char)} accepts.
+     */
+    private static boolean isWhitespace(byte c) {
+        return c >= 0 && Character.isWhitespace(c);
+    }
+
+    /**
+     * Finds the tag spelled by the bytes between from and to.
+     */
+    private int match(MappedByteBuffer data, int from, int to) {
+        for (int t = 0; t < tags.length; t++) {
+            byte[] tag = tags[t];
+            if (tag.length == to - from) {
+                int k = 0;
+                while (k < tag.length && tag[k] == data.get(from + k)) {
+                    k++;
+                }
+                if (k == tag.length) {
+                    return t;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,266 @@
+package code;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Read-only database of puzzles in a memory-mapped file.
+ * Puzzles are fixed-width records, each cell packed into just enough bits for the board size
+ * (4 bits for 9x9, so 41 bytes a puzzle). Records are grouped in sections by size and
+ * difficulty band, listed in a small index at the start of the file, so a puzzle is found by
+ * computing its offset and only that record is decoded. Opening the file maps it and reads the
+ * index, whatever the number of puzzles.
+ *
+ * Layout: MAGIC, VERSION, section count, then per section size, band, puzzle count, record
+ * bytes and offset of the first record (a long), then the records. Integers are big-endian.
+ * A mapping is limited to 2GB, about fifty million 9x9 puzzles.
+ *
+ * Usage: java -cp Sudoku.jar code.PuzzleStore build factory-output.txt puzzles.db
+ *        java -cp Sudoku.jar code.PuzzleStore stats puzzles.db
+ *
+ * @see PuzzleFactory
+ */
+final class PuzzleStore {
+
+    static final int MAGIC = 0x53444B50;
+    static final int VERSION = 1;
+    private static final int HEADER = 12;
+    private static final int ENTRY = 24;
+    /** Sizes a store can hold, as the largest symbol of GridText is 61. */
+    private static final int MAX_SIZE = 61;
+
+    private final ByteBuffer data;
+    /** Per section, by size * BANDS + band: puzzle count, record bytes and offset. */
+    private final int[] counts, recordBytes;
+    private final long[] offsets;
+
+    private PuzzleStore(ByteBuffer data, int[] counts, int[] recordBytes, long[] offsets) {
+        this.data = data;
+        this.counts = counts;
+        this.recordBytes = recordBytes;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Maps a puzzle database.
+     *
+     * @param path The database file.
+     * @return The opened store.
+     * @throws IOException if the file cannot be read or is not a puzzle database.
+     */
+    static PuzzleStore open(Path path) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.limit() < HEADER || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not a puzzle database: " + path);
+        }
+        int sections = data.getInt(8);
+        long index = HEADER + (long) sections * ENTRY;
+        if (sections < 0 || index > data.limit()) {
+            throw new IOException("Bad section count " + sections + " in " + path);
+        }
+        int slots = (MAX_SIZE + 1) * PuzzleFactory.BANDS.length;
+        int[] counts = new int[slots], recordBytes = new int[slots];
+        long[] offsets = new long[slots];
+        for (int s = 0; s < sections; s++) {
+            int entry = HEADER + s * ENTRY;
+            int size = data.getInt(entry), band = data.getInt(entry + 4);
+            if (!GridValidator.hasBoxes(size) || band < 0 || band >= PuzzleFactory.BANDS.length) {
+                throw new IOException("Bad section " + s + " in " + path);
+            }
+            int slot = size * PuzzleFactory.BANDS.length + band;
+            counts[slot] = data.getInt(entry + 8);
+            recordBytes[slot] = data.getInt(entry + 12);
+            offsets[slot] = data.getLong(entry + 16);
+            // records lie between the index and the end of the file, so every offset computed
+            // from a count below fits the mapping
+            if (counts[slot] < 0 || recordBytes[slot] != recordBytes(size) || offsets[slot] < index
+                    || offsets[slot] > data.limit()
+                    || (long) counts[slot] * recordBytes[slot] > data.limit() - offsets[slot]) {
+                throw new IOException("Bad or truncated section " + s + " in " + path);
+            }
+        }
+        return new PuzzleStore(data, counts, recordBytes, offsets);
+    }
+
+    /**
+     * Returns the number of puzzles of a size and band.
+     *
+     * @param size Size of the board.
+     * @param band Index of the band in {@link PuzzleFactory#BANDS}.
+     * @return The puzzle count, 0 if there are none.
+     */
+    int count(int size, int band) {
+        return size < 1 || size > MAX_SIZE ? 0 : counts[size * PuzzleFactory.BANDS.length + band];
+    }
+
+    /**
+     * Decodes one puzzle, its numbers marked as given.
+     *
+     * @param size  Size of the board.
+     * @param band  Index of the band in {@link PuzzleFactory#BANDS}.
+     * @param index Number of the puzzle within its section.
+     * @return The puzzle.
+     * @throws IndexOutOfBoundsException if there is no such puzzle.
+     */
+    Board puzzle(int size, int band, int index) {
+        int slot = size * PuzzleFactory.BANDS.length + band;
+        if (index < 0 || index >= count(size, band)) {
+            throw new IndexOutOfBoundsException("No puzzle " + index + " of size " + size + " " + PuzzleFactory.BANDS[band]);
+        }
+        int at = (int) (offsets[slot] + (long) index * recordBytes[slot]);
+        int bits = bitsPerCell(size), mask = (1 << bits) - 1;
+        Board board = new Board(size);
+        for (int cell = 0; cell < size * size; cell++) {
+            int bit = cell * bits, b = at + (bit >> 3);
+            int word = data.get(b) & 0xFF;
+            if ((bit & 7) + bits > 8) {
+                word |= (data.get(b + 1) & 0xFF) << 8;
+            }
+            int num = word >>> (bit & 7) & mask;
+            if (num != 0) {
+                board.load(cell / size, cell % size, num, true, true);
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Picks a puzzle of a size and band at random.
+     *
+     * @param size Size of the board.
+     * @param band Index of the band in {@link PuzzleFactory#BANDS}.
+     * @param rand Source of the choice.
+     * @return The puzzle, or null if the store has none of that size and band.
+     */
+    Board random(int size, int band, Random rand) {
+        int count = count(size, band);
+        return count == 0 ? null : puzzle(size, band, rand.nextInt(count));
+    }
+
+    /**
+     * Returns the number of bits that hold one cell of a board.
+     */
+    private static int bitsPerCell(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size);
+    }
+
+    /**
+     * Writes a database from the output of {@link PuzzleFactory}, reading it twice with a
+     * {@link PuzzleImporter}: once to size the sections and once to fill the mapped file in place.
+     *
+     * @param in  Lines of puzzle and band, tab separated.
+     * @param out The database to create, replaced if it exists.
+     * @return The number of puzzles stored.
+     * @throws IOException if a file cannot be read or written, or a line is malformed.
+     */
+    static long build(Path in, Path out) throws IOException {
+        int slots = (MAX_SIZE + 1) * PuzzleFactory.BANDS.length;
+        int[] counts = new int[slots];
+        PuzzleImporter importer = new PuzzleImporter(PuzzleFactory.BANDS);
+        importer.read(in, (digits, size, band) -> counts[slot(size, band)]++);
+        int sections = 0;
+        long total = 0;
+        for (int count : counts) {
+            sections += count > 0 ? 1 : 0;
+            total += count;
+        }
+        long[] offsets = new long[slots];
+        long end = HEADER + (long) sections * ENTRY;
+        for (int slot = 0; slot < slots; slot++) {
+            offsets[slot] = end;
+            end += (long) counts[slot] * recordBytes(slot / PuzzleFactory.BANDS.length);
+        }
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("Too many puzzles for one mapped file: " + total);
+        }
+
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_WRITE, 0, end);
+            data.putInt(MAGIC).putInt(VERSION).putInt(sections);
+            for (int slot = 0; slot < slots; slot++) {
+                if (counts[slot] > 0) {
+                    int size = slot / PuzzleFactory.BANDS.length;
+                    data.putInt(size).putInt(slot % PuzzleFactory.BANDS.length).putInt(counts[slot])
+                            .putInt(recordBytes(size)).putLong(offsets[slot]);
+                }
+            }
+            long[] next = offsets.clone();
+            importer.read(in, (digits, size, band) -> {
+                int slot = slot(size, band);
+                pack(digits, size, data, (int) next[slot]);
+                next[slot] += recordBytes(size);
+            });
+            data.force();
+        }
+        return total;
+    }
+
+    /**
+     * Finds the section of a puzzle read from factory output.
+     */
+    private static int slot(int size, int band) throws IOException {
+        if (!GridValidator.hasBoxes(size)) {
+            throw new IOException("Puzzle of size " + size + ", which has no square sub-grids");
+        }
+        if (band < 0) {
+            throw new IOException("Puzzle of size " + size + " without a band");
+        }
+        return size * PuzzleFactory.BANDS.length + band;
+    }
+
+    /**
+     * Returns the bytes of one record of a board size.
+     */
+    private static int recordBytes(int size) {
+        return (size * size * bitsPerCell(size) + 7) / 8;
+    }
+
+    /**
+     * Packs the digits of a grid into a record.
+     */
+    private static void pack(byte[] digits, int size, ByteBuffer data, int at) {
+        int bits = bitsPerCell(size);
+        for (int cell = 0; cell < size * size; cell++) {
+            int bit = cell * bits, b = at + (bit >> 3);
+            int word = digits[cell] << (bit & 7);
+            data.put(b, (byte) (data.get(b) | word));
+            if ((bit & 7) + bits > 8) {
+                data.put(b + 1, (byte) (data.get(b + 1) | word >>> 8));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("build")) {
+            long start = System.nanoTime();
+            long total = build(Paths.get(args[1]), Paths.get(args[2]));
+            System.out.printf("%d puzzles written to %s in %d ms%n", total, args[2],
+                    (System.nanoTime() - start) / 1_000_000);
+        } else if (args.length == 2 && args[0].equals("stats")) {
+            long start = System.nanoTime();
+            PuzzleStore store = open(Paths.get(args[1]));
+            System.out.printf("opened in %.2f ms%n", (System.nanoTime() - start) / 1e6);
+            for (int size = 1; size <= MAX_SIZE; size++) {
+                for (int band = 0; band < PuzzleFactory.BANDS.length; band++) {
+                    if (store.count(size, band) > 0) {
+                        System.out.printf("%dx%d %-6s %d%n", size, size, PuzzleFactory.BANDS[band],
+                                store.count(size, band));
+                    }
+                }
+            }
+        } else {
+            System.err.println("Usage: PuzzleStore build factory-output.txt puzzles.db | stats puzzles.db");
+            System.exit(2);
+        }
+    }
+}
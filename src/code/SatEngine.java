@@ -0,0 +1,96 @@
+package code;
+
+/**
+ * Solves a board by encoding it as a SAT problem for {@link SatSolver}.
+ * There is one variable per candidate of each empty cell, so filled cells and numbers already
+ * used in a region never reach the solver. The clauses say that every empty cell takes exactly
+ * one of its candidates and that every number appears at most once in each region, and at
+ * least once in regions of size cells.
+ * Killer cage sums are not encoded; boards with cages are solved by back-tracking instead.
+ */
+final class SatEngine implements SolvingEngine {
+
+    static final SatEngine INSTANCE = new SatEngine();
+
+    private SatEngine() {
+    }
+
+    @Override
+    public boolean solve(Board board) {
+        if (board.layout().hasSums()) {
+            return board.solveSudoku();
+        }
+        int size = board.size();
+        Layout layout = board.layout();
+        // var[cell * (size + 1) + num] is the variable of num in cell, or 0 if num is not a candidate
+        int[] var = new int[size * size * (size + 1)];
+        int vars = 0;
+        for (int cell = 0; cell < size * size; cell++) {
+            long candidates = board.candidates(cell / size, cell % size);
+            if (board.getElement(cell / size, cell % size) == 0 && candidates == 0) {
+                return false;
+            }
+            while (candidates != 0) {
+                int num = Long.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+                var[cell * (size + 1) + num] = ++vars;
+            }
+        }
+        SatSolver solver = new SatSolver(vars);
+        int[] clause = new int[size * size];
+        for (int cell = 0; cell < size * size; cell++) {
+            if (board.getElement(cell / size, cell % size) != 0) {
+                continue;
+            }
+            int n = 0;
+            for (int num = 1; num <= size; num++) {
+                if (var[cell * (size + 1) + num] != 0) {
+                    clause[n++] = var[cell * (size + 1) + num];
+                }
+            }
+            addExactlyOne(solver, clause, n, true);
+        }
+        for (int r = 0; r < layout.regions(); r++) {
+            int[] cells = layout.cells(r);
+            for (int num = 1; num <= size; num++) {
+                int n = 0;
+                boolean placed = false;
+                for (int cell : cells) {
+                    placed |= board.getElement(cell / size, cell % size) == num;
+                    if (var[cell * (size + 1) + num] != 0) {
+                        clause[n++] = var[cell * (size + 1) + num];
+                    }
+                }
+                addExactlyOne(solver, clause, n, !placed && cells.length == size);
+            }
+        }
+        if (!solver.solve()) {
+            return false;
+        }
+        for (int cell = 0; cell < size * size; cell++) {
+            for (int num = 1; num <= size; num++) {
+                int v = var[cell * (size + 1) + num];
+                if (v != 0 && solver.value(v)) {
+                    board.load(cell / size, cell % size, num, true, false);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds "at most one of the n literals", and "at least one" if required.
+     * A cell with no candidates left, or a number with no room left in a region that
+     * needs it, adds the empty clause.
+     */
+    private static void addExactlyOne(SatSolver solver, int[] literals, int n, boolean atLeastOne) {
+        if (atLeastOne) {
+            solver.addClause(java.util.Arrays.copyOf(literals, n));
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                solver.addClause(-literals[i], -literals[j]);
+            }
+        }
+    }
+}
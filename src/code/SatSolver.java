@@ -0,0 +1,529 @@
+package code;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A small conflict-driven clause-learning SAT solver.
+ * Variables are numbered from 1 and literals are given as in DIMACS: v for "v is true" and
+ * -v for "v is false". Internally literal 2 * (v - 1) is positive and 2 * (v - 1) + 1 negative.
+ *
+ * The search uses two watched literals per clause for propagation, first-UIP conflict
+ * analysis with clause learning, minimization and non-chronological backjumping, VSIDS
+ * branching on a binary heap of variable activities, phase saving, restarts on the Luby
+ * sequence, and periodic deletion of the learnt clauses with the most decision levels (LBD).
+ *
+ * @see SatEngine
+ */
+final class SatSolver {
+
+    /** Conflicts in the first restart interval, scaled by the Luby sequence. */
+    private static final int RESTART_BASE = 100;
+    private static final double VAR_DECAY = 0.95;
+    /** Learnt clauses kept before the first clean-up, grown after each one. */
+    private static final int FIRST_REDUCE = 20000;
+
+    private final int vars;
+    /** All clauses by index; deleted learnt clauses leave a null behind. */
+    private final List<int[]> clauses = new ArrayList<>();
+    /** Indexes of the learnt clauses still alive, and their LBD by clause index. */
+    private final IntList learnts = new IntList();
+    private final IntList lbd = new IntList();
+    private int maxLearnts = FIRST_REDUCE;
+    private final IntList levelMarks = new IntList();
+    private final IntList[] watches;
+    /** Value of each variable: 1 true, -1 false, 0 unassigned. */
+    private final byte[] assigns;
+    private final int[] level;
+    private final int[] reason;
+    private final boolean[] phase;
+    private final boolean[] seen;
+    private final int[] trail;
+    private int trailSize;
+    private int qhead;
+    private final IntList trailLim = new IntList();
+    private final double[] activity;
+    private double varInc = 1;
+    private final VarHeap heap;
+    private boolean unsat;
+
+    /**
+     * Create a solver over a fixed number of variables.
+     *
+     * @param vars Number of variables, numbered 1 to vars.
+     */
+    SatSolver(int vars) {
+        this.vars = vars;
+        watches = new IntList[2 * vars];
+        for (int i = 0; i < watches.length; i++) {
+            watches[i] = new IntList();
+        }
+        assigns = new byte[vars];
+        level = new int[vars];
+        reason = new int[vars];
+        Arrays.fill(reason, -1);
+        phase = new boolean[vars];
+        seen = new boolean[vars];
+        trail = new int[vars];
+        activity = new double[vars];
+        heap = new VarHeap();
+        for (int v = 0; v < vars; v++) {
+            heap.insert(v);
+        }
+    }
+
+    /**
+     * Adds a clause: at least one of the literals must be true.
+     * Clauses may only be added before {@link #solve()}.
+     *
+     * @param literals The literals, in DIMACS form.
+     */
+    void addClause(int... literals) {
+        if (unsat) {
+            return;
+        }
+        int[] clause = new int[literals.length];
+        int n = 0;
+        for (int dimacs : literals) {
+            int lit = dimacs > 0 ? 2 * (dimacs - 1) : 2 * (-dimacs - 1) + 1;
+            int value = litValue(lit);
+            if (value == 1) {
+                return;
+            }
+            if (value == 0 && !contains(clause, n, lit)) {
+                if (contains(clause, n, lit ^ 1)) {
+                    return;
+                }
+                clause[n++] = lit;
+            }
+        }
+        if (n == 0) {
+            unsat = true;
+        } else if (n == 1) {
+            enqueue(clause[0], -1);
+            unsat = propagate() >= 0;
+        } else {
+            attach(Arrays.copyOf(clause, n));
+        }
+    }
+
+    /**
+     * Searches for an assignment satisfying every clause.
+     *
+     * @return True if one was found, false if there is none or the thread was interrupted.
+     */
+    boolean solve() {
+        if (unsat || propagate() >= 0) {
+            return false;
+        }
+        int restarts = 0;
+        long restartLimit = RESTART_BASE;
+        long conflicts = 0;
+        long steps = 0;
+        while (true) {
+            if ((++steps & 1023) == 0 && Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            int conflict = propagate();
+            if (conflict >= 0) {
+                if (trailLim.size == 0) {
+                    return false;
+                }
+                conflicts++;
+                learn(conflict);
+                varInc /= VAR_DECAY;
+            } else if (conflicts >= restartLimit) {
+                cancelUntil(0);
+                if (learnts.size > maxLearnts) {
+                    reduce();
+                }
+                conflicts = 0;
+                restartLimit = RESTART_BASE * luby(++restarts);
+            } else {
+                int var = nextVariable();
+                if (var < 0) {
+                    return true;
+                }
+                trailLim.add(trailSize);
+                enqueue(2 * var + (phase[var] ? 0 : 1), -1);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of a variable in the assignment found by {@link #solve()}.
+     *
+     * @param var The variable, from 1.
+     * @return Whether it is true.
+     */
+    boolean value(int var) {
+        return assigns[var - 1] == 1;
+    }
+
+    private int litValue(int lit) {
+        int value = assigns[lit >> 1];
+        return (lit & 1) == 0 ? value : -value;
+    }
+
+    private static boolean contains(int[] clause, int n, int lit) {
+        for (int i = 0; i < n; i++) {
+            if (clause[i] == lit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int attach(int[] clause) {
+        int index = clauses.size();
+        clauses.add(clause);
+        lbd.add(0);
+        watches[clause[0]].add(index);
+        watches[clause[1]].add(index);
+        return index;
+    }
+
+    private void enqueue(int lit, int from) {
+        int var = lit >> 1;
+        assigns[var] = (byte) ((lit & 1) == 0 ? 1 : -1);
+        level[var] = trailLim.size;
+        reason[var] = from;
+        trail[trailSize++] = lit;
+    }
+
+    /**
+     * Propagates every assignment on the trail. The first literal of a clause that forces
+     * an assignment is always the literal it forces.
+     *
+     * @return The index of a conflicting clause, or -1.
+     */
+    private int propagate() {
+        while (qhead < trailSize) {
+            int falseLit = trail[qhead++] ^ 1;
+            IntList list = watches[falseLit];
+            int[] watching = list.data;
+            int n = list.size;
+            int i = 0, j = 0;
+            while (i < n) {
+                int index = watching[i++];
+                int[] clause = clauses.get(index);
+                if (clause == null) {
+                    continue;
+                }
+                if (clause[0] == falseLit) {
+                    clause[0] = clause[1];
+                    clause[1] = falseLit;
+                }
+                if (litValue(clause[0]) == 1) {
+                    watching[j++] = index;
+                    continue;
+                }
+                boolean moved = false;
+                for (int k = 2; k < clause.length; k++) {
+                    if (litValue(clause[k]) != -1) {
+                        clause[1] = clause[k];
+                        clause[k] = falseLit;
+                        watches[clause[1]].add(index);
+                        moved = true;
+                        break;
+                    }
+                }
+                if (moved) {
+                    continue;
+                }
+                watching[j++] = index;
+                if (litValue(clause[0]) == -1) {
+                    while (i < n) {
+                        watching[j++] = watching[i++];
+                    }
+                    list.size = j;
+                    qhead = trailSize;
+                    return index;
+                }
+                enqueue(clause[0], index);
+            }
+            list.size = j;
+        }
+        return -1;
+    }
+
+    /**
+     * Derives the first-UIP clause of a conflict, jumps back to the level where it
+     * becomes unit, and asserts it.
+     */
+    private void learn(int conflict) {
+        IntList learnt = new IntList();
+        learnt.add(0);
+        int pathCount = 0;
+        int lit = -1;
+        int index = trailSize - 1;
+        int current = trailLim.size;
+        do {
+            int[] clause = clauses.get(conflict);
+            for (int k = lit < 0 ? 0 : 1; k < clause.length; k++) {
+                int q = clause[k];
+                int var = q >> 1;
+                if (!seen[var] && level[var] > 0) {
+                    bump(var);
+                    seen[var] = true;
+                    if (level[var] >= current) {
+                        pathCount++;
+                    } else {
+                        learnt.add(q);
+                    }
+                }
+            }
+            while (!seen[trail[index] >> 1]) {
+                index--;
+            }
+            lit = trail[index--];
+            conflict = reason[lit >> 1];
+            seen[lit >> 1] = false;
+            pathCount--;
+        } while (pathCount > 0);
+        learnt.data[0] = lit ^ 1;
+
+        // drop literals implied by the rest of the clause
+        int[] literals = Arrays.copyOf(learnt.data, learnt.size);
+        int kept = 1;
+        for (int k = 1; k < literals.length; k++) {
+            if (!redundant(literals[k] >> 1)) {
+                learnt.data[kept++] = literals[k];
+            }
+        }
+        for (int k = 1; k < literals.length; k++) {
+            seen[literals[k] >> 1] = false;
+        }
+        learnt.size = kept;
+
+        int backjump = 0;
+        for (int k = 1; k < learnt.size; k++) {
+            int var = learnt.data[k] >> 1;
+            if (level[var] > backjump) {
+                backjump = level[var];
+                int swap = learnt.data[1];
+                learnt.data[1] = learnt.data[k];
+                learnt.data[k] = swap;
+            }
+        }
+        int glue = levels(learnt);
+        cancelUntil(backjump);
+        if (learnt.size == 1) {
+            enqueue(learnt.data[0], -1);
+        } else {
+            int clause = attach(Arrays.copyOf(learnt.data, learnt.size));
+            lbd.data[clause] = glue;
+            learnts.add(clause);
+            enqueue(learnt.data[0], clause);
+        }
+    }
+
+    /**
+     * A literal of a learnt clause is redundant if it was implied by a clause whose other
+     * literals are all in the learnt clause or fixed at level 0.
+     */
+    private boolean redundant(int var) {
+        if (reason[var] < 0) {
+            return false;
+        }
+        int[] clause = clauses.get(reason[var]);
+        for (int k = 1; k < clause.length; k++) {
+            int other = clause[k] >> 1;
+            if (!seen[other] && level[other] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts the distinct decision levels of a clause.
+     */
+    private int levels(IntList clause) {
+        levelMarks.size = 0;
+        int count = 0;
+        for (int k = 0; k < clause.size; k++) {
+            int l = level[clause.data[k] >> 1];
+            while (levelMarks.size <= l) {
+                levelMarks.add(0);
+            }
+            if (levelMarks.data[l] == 0) {
+                levelMarks.data[l] = 1;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the half of the learnt clauses with the highest LBD, keeping clauses of LBD 2
+     * and clauses that are the reason of a current assignment. Watches of deleted clauses
+     * are dropped lazily by propagate.
+     */
+    private void reduce() {
+        Integer[] order = new Integer[learnts.size];
+        for (int k = 0; k < order.length; k++) {
+            order[k] = learnts.data[k];
+        }
+        Arrays.sort(order, (a, b) -> lbd.data[a] != lbd.data[b] ? lbd.data[a] - lbd.data[b]
+                : clauses.get(a).length - clauses.get(b).length);
+        learnts.size = 0;
+        for (int k = 0; k < order.length; k++) {
+            int index = order[k];
+            int[] clause = clauses.get(index);
+            boolean locked = reason[clause[0] >> 1] == index && litValue(clause[0]) == 1;
+            if (k < order.length / 2 || lbd.data[index] <= 2 || locked) {
+                learnts.add(index);
+            } else {
+                clauses.set(index, null);
+            }
+        }
+        maxLearnts += maxLearnts / 10;
+    }
+
+    private void cancelUntil(int target) {
+        if (trailLim.size <= target) {
+            return;
+        }
+        int start = trailLim.data[target];
+        for (int i = trailSize - 1; i >= start; i--) {
+            int var = trail[i] >> 1;
+            phase[var] = (trail[i] & 1) == 0;
+            assigns[var] = 0;
+            reason[var] = -1;
+            if (!heap.contains(var)) {
+                heap.insert(var);
+            }
+        }
+        trailSize = start;
+        qhead = start;
+        trailLim.size = target;
+    }
+
+    private int nextVariable() {
+        while (!heap.isEmpty()) {
+            int var = heap.removeMax();
+            if (assigns[var] == 0) {
+                return var;
+            }
+        }
+        return -1;
+    }
+
+    private void bump(int var) {
+        if ((activity[var] += varInc) > 1e100) {
+            for (int v = 0; v < vars; v++) {
+                activity[v] *= 1e-100;
+            }
+            varInc *= 1e-100;
+        }
+        if (heap.contains(var)) {
+            heap.increased(var);
+        }
+    }
+
+    /**
+     * Returns element i (from 1) of the Luby sequence 1, 1, 2, 1, 1, 2, 4, ...
+     */
+    private static long luby(int i) {
+        int k = 1;
+        while ((1L << k) - 1 < i) {
+            k++;
+        }
+        while ((1L << k) - 1 != i) {
+            i -= (1 << (k - 1)) - 1;
+            k = 1;
+            while ((1L << k) - 1 < i) {
+                k++;
+            }
+        }
+        return 1L << (k - 1);
+    }
+
+    /** A growable list of ints. */
+    private static final class IntList {
+        int[] data = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+    }
+
+    /** A binary max-heap of variables ordered by activity. */
+    private final class VarHeap {
+        private final int[] heap = new int[vars];
+        private final int[] position = new int[vars];
+        private int size;
+
+        VarHeap() {
+            Arrays.fill(position, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean contains(int var) {
+            return position[var] >= 0;
+        }
+
+        void insert(int var) {
+            heap[size] = var;
+            position[var] = size;
+            up(size++);
+        }
+
+        void increased(int var) {
+            up(position[var]);
+        }
+
+        int removeMax() {
+            int max = heap[0];
+            position[max] = -1;
+            if (--size > 0) {
+                heap[0] = heap[size];
+                position[heap[0]] = 0;
+                down(0);
+            }
+            return max;
+        }
+
+        private void up(int i) {
+            int var = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (activity[heap[parent]] >= activity[var]) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                position[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = var;
+            position[var] = i;
+        }
+
+        private void down(int i) {
+            int var = heap[i];
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && activity[heap[child + 1]] > activity[heap[child]]) {
+                    child++;
+                }
+                if (activity[heap[child]] <= activity[var]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                position[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = var;
+            position[var] = i;
+        }
+    }
+}
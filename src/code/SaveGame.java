@@ -0,0 +1,258 @@
+package code;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves and restores a game: its board and the whole undo/redo history.
+ *
+ * The binary form starts with MAGIC, VERSION, the board size, the number of history entries and
+ * the index of the current one. The first entry stores every cell in one byte (the number, plus
+ * VALID and GIVEN flags), later entries only the cells that changed since the previous one, as a
+ * count followed by cell index and byte pairs. Each entry also has a flag byte for the solved
+ * state, and the solution kept from the generator follows the header when there is one.
+ *
+ * The text form is one line: the puzzle in {@link GridText} form, so any tool reading that
+ * format gets the puzzle, then a tab and the player's entries in the same form.
+ * Only classic layouts are saved.
+ */
+final class SaveGame {
+
+    static final int MAGIC = 0x53444B53;
+    static final byte VERSION = 1;
+
+    private static final int VALID = 0x40;
+    private static final int GIVEN = 0x80;
+    private static final int DIGIT = 0x3F;
+    private static final byte SOLVED = 1;
+
+    private SaveGame() {
+    }
+
+    /**
+     * Writes the history holding a node to a file, replacing it.
+     *
+     * @param current The node of the state being played.
+     * @param file    The file to write.
+     * @throws IOException if the file cannot be written.
+     * @throws IllegalArgumentException if the board does not have a classic layout.
+     */
+    static void save(HistoryNode current, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = encode(current);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    /**
+     * Reads a game saved by {@link #save(HistoryNode, Path)}.
+     *
+     * @param file The file to read.
+     * @return The node of the state that was being played, linked to the rest of the history.
+     * @throws IOException if the file cannot be read or is not a saved game.
+     */
+    static HistoryNode load(Path file) throws IOException {
+        return decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    /**
+     * Encodes the history holding a node.
+     *
+     * @param current The node of the state being played.
+     * @return The binary form, ready to be read.
+     */
+    static ByteBuffer encode(HistoryNode current) {
+        HistoryNode head = current;
+        int index = 0;
+        while (head.getPrevious() != null) {
+            head = head.getPrevious();
+            index++;
+        }
+        Board first = head.getBoard();
+        int size = first.size();
+        if (!first.layout().isClassic()) {
+            throw new IllegalArgumentException("Only classic boards can be saved");
+        }
+        int count = 0, bytes = 0;
+        Board previous = null;
+        for (HistoryNode node = head; node != null; node = node.getNext()) {
+            bytes += 1 + (previous == null ? size * size : 4 + 3 * changes(previous, node.getBoard(), null));
+            previous = node.getBoard();
+            count++;
+        }
+        byte[] solution = current.getBoard().solution();
+        ByteBuffer out = ByteBuffer.allocate(15 + (solution != null ? size * size : 0) + bytes);
+        out.putInt(MAGIC).put(VERSION).put((byte) size).putInt(count).putInt(index);
+        out.put((byte) (solution != null ? 1 : 0));
+        if (solution != null) {
+            out.put(solution);
+        }
+        previous = null;
+        for (HistoryNode node = head; node != null; node = node.getNext()) {
+            Board board = node.getBoard();
+            out.put(board.getWasSolved() ? SOLVED : 0);
+            if (previous == null) {
+                for (int cell = 0; cell < size * size; cell++) {
+                    out.put(pack(board, cell));
+                }
+            } else {
+                out.putInt(changes(previous, board, null));
+                changes(previous, board, out);
+            }
+            previous = board;
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Counts the cells that differ between two boards, writing each as its index and new
+     * byte if out is not null.
+     */
+    private static int changes(Board before, Board after, ByteBuffer out) {
+        int size = after.size(), changed = 0;
+        for (int cell = 0; cell < size * size; cell++) {
+            byte packed = pack(after, cell);
+            if (packed != pack(before, cell)) {
+                changed++;
+                if (out != null) {
+                    out.putShort((short) cell).put(packed);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static byte pack(Board board, int cell) {
+        int row = cell / board.size(), col = cell % board.size();
+        return (byte) (board.getElement(row, col) | (board.isValid(row, col) ? VALID : 0)
+                | (board.isMutable(row, col) ? 0 : GIVEN));
+    }
+
+    /**
+     * Decodes a saved game.
+     *
+     * @param in The binary form, read from its position.
+     * @return The node of the state that was being played.
+     * @throws IOException if the data is not a saved game.
+     */
+    static HistoryNode decode(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != MAGIC || in.get() != VERSION) {
+                throw new IOException("Not a saved game");
+            }
+            int size = in.get(), count = in.getInt(), index = in.getInt();
+            if (!GridValidator.hasBoxes(size) || count < 1 || index < 0 || index >= count) {
+                throw new IOException("Bad saved game header");
+            }
+            byte[] solution = null;
+            if (in.get() != 0) {
+                solution = new byte[size * size];
+                in.get(solution);
+                for (byte num : solution) {
+                    if (num < 1 || num > size) {
+                        throw new IOException("Bad solution number " + num + " in saved game");
+                    }
+                }
+            }
+            Board board = new Board(size);
+            board.setSolution(solution);
+            HistoryNode node = null, current = null;
+            for (int k = 0; k < count; k++) {
+                boolean solved = in.get() == SOLVED;
+                if (node == null) {
+                    for (int cell = 0; cell < size * size; cell++) {
+                        unpack(board, cell, in.get());
+                    }
+                } else {
+                    for (int n = in.getInt(); n > 0; n--) {
+                        int cell = in.getShort();
+                        if (cell < 0 || cell >= size * size) {
+                            throw new IOException("Bad cell " + cell + " in saved game");
+                        }
+                        unpack(board, cell, in.get());
+                    }
+                }
+                node = node == null ? new HistoryNode(board) : new HistoryNode(board, node);
+                if (solved) {
+                    node.getBoard().setWasSolved();
+                }
+                if (k == index) {
+                    current = node;
+                }
+            }
+            return current;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated saved game", e);
+        }
+    }
+
+    private static void unpack(Board board, int cell, byte packed) throws IOException {
+        int num = packed & DIGIT;
+        if (num > board.size()) {
+            throw new IOException("Bad number " + num + " in saved game");
+        }
+        board.load(cell / board.size(), cell % board.size(), num, (packed & VALID) != 0, (packed & GIVEN) != 0);
+    }
+
+    /**
+     * Writes a board as one line: the given numbers, a tab, and the player's numbers.
+     *
+     * @param board The board to write.
+     * @return The text form, without a line break.
+     */
+    static String toText(Board board) {
+        int size = board.size();
+        StringBuilder sb = new StringBuilder(2 * size * size + 1);
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                sb.append('\t');
+            }
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    boolean given = !board.isMutable(row, col);
+                    sb.append(GridText.symbol(given == (pass == 0) ? board.getElement(row, col) : 0));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads a line written by {@link #toText(Board)}. A plain puzzle line, without the
+     * player's numbers, is read as a new game.
+     *
+     * @param line The text form.
+     * @return The board, the player's numbers checked against the rules as they are placed.
+     * @throws IllegalArgumentException if the line is not a puzzle.
+     */
+    static Board fromText(CharSequence line) {
+        Board board = GridText.decode(line);
+        int size = board.size(), start = size * size;
+        while (start < line.length() && (line.charAt(start) == '\t' || line.charAt(start) == ' ')) {
+            start++;
+        }
+        if (start + size * size <= line.length() && start > size * size) {
+            Board entries = GridText.decode(line.subSequence(start, line.length()));
+            if (entries.size() != size) {
+                throw new IllegalArgumentException("Entries do not match the puzzle size");
+            }
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    if (entries.getElement(row, col) != 0 && board.isMutable(row, col)) {
+                        board.setElement(row, col, entries.getElement(row, col));
+                    }
+                }
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,164 @@
+package code;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Walks the search tree of a board and yields each of its solutions as a new board, one at a
+ * time. The search works on a private copy of the board with an explicit stack: at each depth
+ * it fills the empty cell with the fewest candidates and remembers the candidates not tried yet.
+ * Splitting hands the untried candidates of the shallowest depth that has some, half of them,
+ * to a new spliterator, so parallel streams divide the tree near its root.
+ *
+ * @see Board#solutions()
+ */
+final class SolutionSpliterator implements Spliterator<Board> {
+
+    private final Board board;
+    private final int size;
+    /** Cell filled at each depth and the candidates it has left to try. */
+    private final int[] cells;
+    private final long[] todo;
+    /** Depths below base were fixed when this spliterator was split off. */
+    private final int base;
+    /** Depth of the cell being tried; cells at smaller depths hold a number. */
+    private int depth;
+    /** Whether the cell at depth is still to be chosen. */
+    private boolean enter;
+    private boolean done;
+
+    /**
+     * Creates a spliterator over the solutions of a board, which is copied and never changed.
+     *
+     * @param board The board to solve.
+     */
+    SolutionSpliterator(Board board) {
+        this(board.cloneBoard(), new int[board.size() * board.size() + 1],
+                new long[board.size() * board.size() + 1], 0, true);
+    }
+
+    private SolutionSpliterator(Board board, int[] cells, long[] todo, int base, boolean enter) {
+        this.board = board;
+        this.size = board.size();
+        this.cells = cells;
+        this.todo = todo;
+        this.base = base;
+        this.depth = base;
+        this.enter = enter;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Board> action) {
+        while (!done) {
+            if (enter) {
+                enter = false;
+                if (!choose()) {
+                    Board solution = board.cloneBoard();
+                    backtrack();
+                    action.accept(solution);
+                    return true;
+                }
+            }
+            int cell = cells[depth];
+            if (board.getElement(cell / size, cell % size) != 0) {
+                board.load(cell / size, cell % size, 0, false, false);
+            }
+            if (todo[depth] == 0) {
+                backtrack();
+                continue;
+            }
+            int number = Long.numberOfTrailingZeros(todo[depth]);
+            todo[depth] &= todo[depth] - 1;
+            if (board.ruleChecker(cell / size, cell % size, number)) {
+                board.load(cell / size, cell % size, number, true, false);
+                depth++;
+                enter = true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks the empty cell with the fewest candidates for the current depth.
+     *
+     * @return False if the board is full.
+     */
+    private boolean choose() {
+        int best = -1, bestCount = Integer.MAX_VALUE;
+        for (int cell = 0; cell < size * size && bestCount > 1; cell++) {
+            if (board.getElement(cell / size, cell % size) == 0) {
+                int n = Long.bitCount(board.candidates(cell / size, cell % size));
+                if (n < bestCount) {
+                    best = cell;
+                    bestCount = n;
+                }
+            }
+        }
+        if (best < 0) {
+            return false;
+        }
+        cells[depth] = best;
+        todo[depth] = board.candidates(best / size, best % size);
+        return true;
+    }
+
+    /**
+     * Goes back to the previous depth, or ends the walk when this spliterator's part of the
+     * tree is exhausted. The cell of that depth is cleared by the next step.
+     */
+    private void backtrack() {
+        if (depth == base) {
+            done = true;
+        } else {
+            depth--;
+        }
+    }
+
+    @Override
+    public Spliterator<Board> trySplit() {
+        if (done) {
+            return null;
+        }
+        if (enter) {
+            enter = false;
+            if (!choose()) {
+                enter = true;
+                return null;
+            }
+        }
+        int k = base;
+        while (k <= depth && Long.bitCount(todo[k]) < (k == depth ? 2 : 1)) {
+            k++;
+        }
+        if (k > depth) {
+            return null;
+        }
+        // the new part keeps the numbers above depth k and takes half of the untried ones at k
+        long half = todo[k];
+        for (int n = Long.bitCount(half) / 2; n > 0; n--) {
+            half &= half - 1;
+        }
+        todo[k] &= ~half;
+        Board copy = board.cloneBoard();
+        for (int d = k; d <= depth; d++) {
+            int cell = cells[d];
+            if (copy.getElement(cell / size, cell % size) != 0) {
+                copy.load(cell / size, cell % size, 0, false, false);
+            }
+        }
+        int[] splitCells = cells.clone();
+        long[] splitTodo = new long[todo.length];
+        splitTodo[k] = half;
+        return new SolutionSpliterator(copy, splitCells, splitTodo, k, false);
+    }
+
+    @Override
+    public long estimateSize() {
+        return done ? 0 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL | IMMUTABLE;
+    }
+}
@@ -0,0 +1,73 @@
+package code;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded least-recently-used cache of solve results keyed by the Zobrist hash of a board.
+ * The cache is split into segments chosen by the low bits of the hash, each with its own lock
+ * and its own share of the capacity, so threads looking up different boards rarely wait for
+ * each other. Results are only a shortcut: callers search again when an entry was evicted.
+ *
+ * @see Board#hash()
+ */
+final class SolveCache {
+
+    /** Marker stored for states the solver proved unsolvable. */
+    static final int[] UNSOLVABLE = new int[0];
+
+    /** Maximum number of board states remembered. */
+    private static final int CAPACITY = 1024;
+    /** Number of independently locked segments, a power of two. */
+    private static final int SEGMENTS = 16;
+
+    private static final Lru[] CACHE = new Lru[SEGMENTS];
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) {
+            CACHE[i] = new Lru();
+        }
+    }
+
+    /** Access-ordered map that drops its least recently used entry beyond its share of CAPACITY. */
+    @SuppressWarnings("serial")
+    private static final class Lru extends LinkedHashMap<Long, int[]> {
+        Lru() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+            return size() > CAPACITY / SEGMENTS;
+        }
+    }
+
+    private SolveCache() {
+    }
+
+    /**
+     * Returns the cached result for a board state.
+     *
+     * @param hash Zobrist hash of the board.
+     * @return The solved digits in row-major order, {@link #UNSOLVABLE}, or null if unknown.
+     */
+    static int[] get(long hash) {
+        Lru segment = CACHE[(int) hash & (SEGMENTS - 1)];
+        synchronized (segment) {
+            return segment.get(hash);
+        }
+    }
+
+    /**
+     * Remembers the result of solving a board state.
+     *
+     * @param hash Zobrist hash of the board before it was solved.
+     * @param solution The solved digits in row-major order, or {@link #UNSOLVABLE}.
+     */
+    static void put(long hash, int[] solution) {
+        Lru segment = CACHE[(int) hash & (SEGMENTS - 1)];
+        synchronized (segment) {
+            segment.put(hash, solution);
+        }
+    }
+}
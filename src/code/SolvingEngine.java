@@ -0,0 +1,34 @@
+package code;
+
+/**
+ * A way of filling the empty cells of a board.
+ * Engines fill the board in place, marking every number they add as valid, and stop with
+ * false when the calling thread is interrupted, like {@link Board#solveSudoku()}.
+ */
+interface SolvingEngine {
+
+    /** The plain back-tracking search of Board. */
+    SolvingEngine BACKTRACKING = Board::solveSudoku;
+
+    /**
+     * Fills the empty cells of the board with a solution.
+     *
+     * @param board The board to solve.
+     * @return Whether a solution was found.
+     */
+    boolean solve(Board board);
+
+    /**
+     * Returns the engine suited to a board: the table of all grids for classic 4x4 boards,
+     * back-tracking for other small boards, the clause-learning engine for 16x16 and larger ones.
+     *
+     * @param board The board to be solved.
+     * @return The engine to use.
+     */
+    static SolvingEngine forBoard(Board board) {
+        if (Grid4Engine.supports(board.layout())) {
+            return Grid4Engine.INSTANCE;
+        }
+        return board.size() >= 16 && !board.layout().hasSums() ? SatEngine.INSTANCE : BACKTRACKING;
+    }
+}
@@ -4,8 +4,23 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import javax.swing.*;
 
 /**
@@ -21,13 +36,18 @@ public class SudokuDialog extends JFrame {
     /** Default dimension of the dialog. */
     private final static Dimension DEFAULT_SIZE = new Dimension(310, 450);
     private final static String IMAGE_DIR = "/image/";
+    /** Bundled puzzles, one per line, used for the first board shown. */
+    private final static String FIRST_PUZZLES = "/puzzle/first.txt";
+    /** Time at which main started, used to report the time to the first frame when the
+     * sudoku.timing system property is true. */
+    private final static long START_TIME = System.nanoTime();
     final static Color BACKGROUND = new Color(47,76,76);
 
-    /** Sudoku historyIterator. */
-    private HistoryNode historyIterator;
+    /** The game shown in the window: its history, journal and solvability checks. */
+    private final GameController game;
 
-    /** Special panel to display a Sudoku historyIterator. */
-    private BoardPanel boardPanel;
+    /** Puzzle database, read when the sudoku.puzzles system property names a file. */
+    private PuzzleStore puzzles;
 
     /** Message bar to display various messages. */
     private JLabel msgBar = new JLabel("");
@@ -48,59 +68,53 @@ public class SudokuDialog extends JFrame {
         super("Sudoku");
         setLocation(dim.width/2-155, dim.height/2-225);
         setSize(DEFAULT_SIZE);
-        initHistory();
-        boardPanel = new BoardPanel(historyIterator.getBoard(), this::boardClicked);
-        configureMenu();
-        configureUI();
-        setResizable(false);
-        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
-        setVisible(true);
-
-    }
+        game = new GameController(initHistory(), new GameController.View() {
+            @Override
+            public void showMessage(String msg) {
+                SudokuDialog.this.showMessage(msg);
+            }
 
-    /**
-     * Callback to be invoked when a square of the historyIterator is clicked.
-     *
-     * @param x 0-based row index of the clicked square.
-     * @param y 0-based column index of the clicked square.
-     */
-    private void boardClicked(int x, int y) {
-//        System.out.println("boardClicked");
-        boardPanel.sx = x;
-        boardPanel.sy = y;
-        boardPanel.highlightSqr = true;
-        content.remove(numberButtons);
-        numberButtons = makeNumberButtons();
-        content.add(numberButtons);
-        content.revalidate();
-        boardPanel.repaint();
-        showMessage(String.format("Board clicked: x = %d, y = %d", x, y));
-    }
+            @Override
+            public void showNumberButtons(JPanel buttons) {
+                content.remove(numberButtons);
+                numberButtons = buttons;
+                content.add(numberButtons);
+                content.revalidate();
+            }
 
-    /**
-     * Callback to be invoked when a number button is clicked.
-     *
-     * @param number Clicked number (1-9), or 0 for "X".
-     */
-    private void numberClicked(int number) {
-        if (historyIterator.isMutable(boardPanel.sy, boardPanel.sx)) {
-            createHistory();
-            if (number == 0) {
-                historyIterator.deleteElement(boardPanel.sy, boardPanel.sx);
-                showMessage("Number Deleted");
+            @Override
+            public void showSolvable(Boolean solvable) {
+                setTitle(solvable == Boolean.FALSE ? "Sudoku - no solution left" : "Sudoku");
             }
-            else {
-                historyIterator.setElement(boardPanel.sy, boardPanel.sx, number);
-                boardPanel.invalid = !historyIterator.isValid(boardPanel.sy, boardPanel.sx);
-                showMessage(String.format("Inserted Number %d", number));
+
+            @Override
+            public void showWon(int size) {
+                Object[] options = {"New Game", "Exit"};
+                int choice = JOptionPane.showOptionDialog(null, "You Won!",
+                        "Congratulations", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE,
+                        null, options, options[1]);
+                if (choice == JOptionPane.YES_OPTION) {
+                    newGame(size);
+                }
+                else {
+                    System.exit(0);
+                }
             }
-            boardPanel.setBoard(historyIterator.getBoard());
-        }
-        else {
-            boardPanel.invalid = true;
+        });
+        openJournal();
+        openPuzzles();
+        if (Boolean.getBoolean("sudoku.timing")) {
+            game.panel().firstPaint = () -> System.out.printf("First frame after %d ms%n",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - START_TIME));
         }
-        boardPanel.highlightSqr = false;
-        boardPanel.repaint();
+        configureMenu();
+        configureUI();
+        game.checkSolvable();
+        setMinimumSize(DEFAULT_SIZE);
+        setResizable(true);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setVisible(true);
+
     }
 
     /**
@@ -118,19 +132,30 @@ public class SudokuDialog extends JFrame {
     private void configureMenu() {
         JMenu menu = new JMenu("Menu");
         JMenuBar mb = new JMenuBar();
-        JMenuItem newGame, exit;
+        JMenuItem newGame, saveGame, openGame, exit;
+        JCheckBoxMenuItem pencilMarks;
         setJMenuBar(mb);
         /*Menu Items Declaration*/
         newGame = new JMenuItem("New Game",KeyEvent.VK_N);
+        saveGame = new JMenuItem("Save Game",KeyEvent.VK_S);
+        openGame = new JMenuItem("Open Game",KeyEvent.VK_O);
+        pencilMarks = new JCheckBoxMenuItem("Pencil Marks");
+        pencilMarks.setMnemonic(KeyEvent.VK_P);
         exit = new JMenuItem("Exit",KeyEvent.VK_Q);
         /*Menu Accelerators*/
         newGame.setAccelerator(KeyStroke.getKeyStroke("alt A"));
+        saveGame.setAccelerator(KeyStroke.getKeyStroke("alt S"));
+        openGame.setAccelerator(KeyStroke.getKeyStroke("alt O"));
+        pencilMarks.setAccelerator(KeyStroke.getKeyStroke("alt P"));
         exit.setAccelerator(KeyStroke.getKeyStroke("alt E"));
         /*Menu Items Icons*/
         newGame.setIcon(createImageIcon("new.png"));
         exit.setIcon(createImageIcon("exit.png"));
 
         menu.add(newGame);
+        menu.add(saveGame);
+        menu.add(openGame);
+        menu.add(pencilMarks);
         menu.add(exit);
         menu.setMnemonic(KeyEvent.VK_B);
         mb.add(menu);
@@ -145,29 +170,66 @@ public class SudokuDialog extends JFrame {
                     null, options, options[2]);
             switch (n) {
                 case JOptionPane.YES_OPTION:
-                    historyIterator.reset(4);
-                    content.remove(numberButtons);
-                    numberButtons = makeNumberButtons();
-                    content.add(numberButtons);
+                    newGame(4);
                     break;
                 case JOptionPane.NO_OPTION:
-                    historyIterator.reset(9);
-                    content.remove(numberButtons);
-                    numberButtons = makeNumberButtons();
-                    content.add(numberButtons);
+                    newGame(9);
                     break;
                 case JOptionPane.CANCEL_OPTION:
                     System.exit(0);
                     break;
             }
-            boardPanel.reset = true;
-            historyIterator.generateBoard();
-            content.revalidate();
-            repaint();
+        });
+        saveGame.addActionListener(e -> saveGame());
+        openGame.addActionListener(e -> openGame());
+        pencilMarks.addActionListener(e -> {
+            game.panel().pencilMarks = pencilMarks.isSelected();
+            game.panel().repaint();
         });
         exit.addActionListener(e -> System.exit(0));
     }
 
+    /**
+     * Starts a new game of a size. With a puzzle database the player picks a difficulty
+     * and gets a stored puzzle of that grade; otherwise, or if the dialog is closed, the
+     * board is generated.
+     *
+     * @param size Size of the new board.
+     */
+    private void newGame(int size) {
+        if (puzzles != null) {
+            List<String> bands = new ArrayList<>();
+            for (int band = 0; band < PuzzleFactory.BANDS.length; band++) {
+                if (puzzles.count(size, band) > 0) {
+                    bands.add(PuzzleFactory.BANDS[band]);
+                }
+            }
+            if (!bands.isEmpty()) {
+                Object choice = JOptionPane.showInputDialog(null, "Select a Difficulty", "New Game",
+                        JOptionPane.QUESTION_MESSAGE, null, bands.toArray(), bands.get(0));
+                if (choice != null) {
+                    int band = Arrays.asList(PuzzleFactory.BANDS).indexOf(choice);
+                    Board board = puzzles.random(size, band, ThreadLocalRandom.current());
+                    game.startGame(board, j -> j.puzzle(board));
+                    return;
+                }
+            }
+        }
+        newGame(size, ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Starts a new game on a generated board with a fresh history.
+     *
+     * @param size Size of the new board.
+     * @param seed Seed of the generated board, recorded in the journal.
+     */
+    private void newGame(int size, long seed) {
+        Board board = new Board(size);
+        board.generateBoard(seed);
+        game.startGame(board, j -> j.newGame(size, seed));
+    }
+
     /**
      * Configure the UI.
      */
@@ -182,7 +244,7 @@ public class SudokuDialog extends JFrame {
         JPanel historyIterator = new JPanel();
         historyIterator.setBorder(BorderFactory.createEmptyBorder(10, 16, 0, 16));
         historyIterator.setLayout(new GridLayout(1, 1));
-        historyIterator.add(boardPanel);
+        historyIterator.add(game.panel());
         historyIterator.setBackground(BACKGROUND);
         add(historyIterator, BorderLayout.CENTER);
         msgBar.setBorder(BorderFactory.createEmptyBorder(10, 16, 10, 0));
@@ -236,10 +298,10 @@ public class SudokuDialog extends JFrame {
         redo = makeOptionButtons("redo.png", KeyEvent.VK_Y);
         solve = makeOptionButtons("solve.png", KeyEvent.VK_S);
         can = makeOptionButtons("can.png", KeyEvent.VK_C);
-        undo.addActionListener(e -> undo());
-        redo.addActionListener(e -> redo());
-        solve.addActionListener(e -> solve());
-        can.addActionListener(e-> isSolvable());
+        undo.addActionListener(e -> game.undo());
+        redo.addActionListener(e -> game.redo());
+        solve.addActionListener(e -> game.solve());
+        can.addActionListener(e-> game.isSolvable());
         toolBar.add(undo);
         toolBar.add(redo);
         toolBar.add(solve);
@@ -253,7 +315,7 @@ public class SudokuDialog extends JFrame {
      */
     private JPanel makeControlPanel() {
         // buttons labeled 1, 2, ..., 9, and X.
-        numberButtons = makeNumberButtons();
+        numberButtons = game.makeNumberButtons();
         content.setLayout(new BoxLayout(content, BoxLayout.PAGE_AXIS));
         content.add(makeToolBar());
         content.add(numberButtons);
@@ -261,28 +323,6 @@ public class SudokuDialog extends JFrame {
         return content;
     }
 
-    /**
-     * Method in charge of creating the number buttons.
-     * */
-    private JPanel makeNumberButtons() {
-        JPanel numberButtons = new JPanel(new FlowLayout());
-        int maxNumber = historyIterator.size() + 1;
-        for (int i = 1; i <= maxNumber; i++) {
-            int number = i % maxNumber;
-            JButton button = new JButton(number == 0 ? "X" : String.valueOf(number));
-            button.setFocusPainted(false);
-            button.setMargin(new Insets(0, 2, 0, 2));
-            button.addActionListener(e -> numberClicked(number));
-            if (!historyIterator.ruleChecker(boardPanel.sy,boardPanel.sx,i) && number != 0) {
-                button.setEnabled(false);
-            }
-            numberButtons.add(button);
-        }
-        numberButtons.setAlignmentX(CENTER_ALIGNMENT);
-        numberButtons.setBackground(BACKGROUND);
-        return numberButtons;
-    }
-
     /**
      * Create an image icon from the given image file.
      */
@@ -295,81 +335,152 @@ public class SudokuDialog extends JFrame {
     }
 
     /**
-     * Creates history for undo and redo functions of Sudoku game
-     *
-     */
-    private void createHistory() {
-        try {
-            historyIterator.setNext(new HistoryNode(historyIterator.getBoard().clone(), historyIterator));
-        } catch (CloneNotSupportedException e) {
-            e.printStackTrace();
-        }
-        historyIterator = historyIterator.getNext();
+     * Method used to pick the board the history starts with.
+     * The first board is read from a bundled puzzle so the window appears without waiting
+     * for the generator, which is warmed up in the background instead.
+     * */
+    private Board initHistory() {
+        Thread warmUp = new Thread(SudokuDialog::warmUp, "engine-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.setPriority(Thread.MIN_PRIORITY);
+        warmUp.start();
+        return loadFirstPuzzle();
     }
 
     /**
-     * Method used to create a HistoryNode for undo and redo.
+     * Picks one of the bundled puzzles, generating a board if they cannot be read.
      * */
-    private void initHistory() {
-        historyIterator = new HistoryNode(new Board(4));
-        historyIterator.generateBoard();
-
+    private Board loadFirstPuzzle() {
+        InputStream in = getClass().getResourceAsStream(FIRST_PUZZLES);
+        if (in != null) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+                List<String> lines = reader.lines().filter(line -> !line.isEmpty()).collect(Collectors.toList());
+                if (!lines.isEmpty()) {
+                    return GridText.decode(lines.get(ThreadLocalRandom.current().nextInt(lines.size())));
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+        Board board = new Board(4);
+        board.generateBoard();
+        return board;
     }
 
     /**
-     * Goes back to previous game state, essentially "undoing" a move if possible
-     */
-    private void undo() {
-        if(historyIterator.getPrevious() != null) {
-            historyIterator = historyIterator.getPrevious();
-            boardPanel.setBoard(historyIterator.getBoard());
-            boardPanel.highlightSqr = false;
-            boardPanel.repaint();
+     * Runs the generator and solver on throwaway boards so that the first new game
+     * does not pay for class loading and compilation. The boards are solved from copies
+     * made through their text form, which do not know the generated solution, so the
+     * search itself runs, within the step budget of a server command.
+     * */
+    private static void warmUp() {
+        for (int i = 0; i < 20; i++) {
+            for (int size : new int[] {4, 9}) {
+                Board board = new Board(size);
+                board.generateBoard(i);
+                GridText.decode(GridText.encode(board)).solvableWithin(GameSession.SEARCH_STEPS);
+            }
         }
     }
 
     /**
-     * Goes forward to next game state, essentially "redoing" a move if possible
-     */
-    private void redo() {
-        if(historyIterator.getNext() != null) {
-            historyIterator = historyIterator.getNext();
-            boardPanel.highlightSqr = false;
-            boardPanel.setBoard(historyIterator.getBoard());
-            boardPanel.repaint();
+     * Opens the move journal named by the sudoku.journal system property, if any,
+     * and records the first board.
+     * */
+    private void openJournal() {
+        String path = System.getProperty("sudoku.journal");
+        if (path != null) {
+            try {
+                game.setJournal(new MoveJournal(Paths.get(path)));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
     /**
-     * Method called when the solve button is pressed.
+     * Maps the puzzle database named by the sudoku.puzzles system property, if any.
      * */
-    private void solve() {
-        Board test = historyIterator.getBoard().cloneBoard();
-        if (test.isSolvable()) {
-            test.setWasSolved();
-            createHistory();
-            historyIterator.setBoard(test);
-            boardPanel.setBoard(historyIterator.getBoard());
-            test.solveSudoku();
-            boardPanel.repaint();
-        }
-        else {
-            JOptionPane.showMessageDialog(null, "This boars cannot be solved.", "Can It Be Solved?", JOptionPane.ERROR_MESSAGE);
+    private void openPuzzles() {
+        String path = System.getProperty("sudoku.puzzles");
+        if (path != null) {
+            try {
+                puzzles = PuzzleStore.open(Paths.get(path));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
     /**
-     * Method called when the can solve button is called.
-     * */
-    private void isSolvable() {
-        Board test = historyIterator.getBoard().cloneBoard();
-        if (!test.isSolved()) {
-            if (test.isSolvable()) {
-                JOptionPane.showMessageDialog(null, "This board CAN be solved.", "Can It Be Solved?", JOptionPane.INFORMATION_MESSAGE);
+     * Asks for a file and saves the game with its history there. Boards that are not classic
+     * are saved as a line of text, puzzle and entries, without their history.
+     */
+    private void saveGame() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        HistoryNode historyIterator = game.current();
+        try {
+            if (historyIterator.getBoard().layout().isClassic()) {
+                SaveGame.save(historyIterator, file);
             } else {
-                JOptionPane.showMessageDialog(null, "This board CANNOT be solved.", "Can It Be Solved?", JOptionPane.INFORMATION_MESSAGE);
+                Files.write(file, Collections.singletonList(SaveGame.toText(historyIterator.getBoard())),
+                        StandardCharsets.US_ASCII);
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Could not save the game: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Asks for a file and resumes the game saved there. A file that is not a saved game is
+     * read as text: its first line is a puzzle, optionally followed by a tab and the entries.
+     * While moves are journaled, the saved history is dropped and the game is journaled as
+     * the puzzle followed by its entries.
+     */
+    private void openGame() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        HistoryNode node;
+        try {
+            try {
+                node = SaveGame.load(file);
+            } catch (IOException e) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+                    String line = reader.readLine();
+                    node = new HistoryNode(SaveGame.fromText(line == null ? "" : line));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(null, "Could not open the game: " + e.getMessage());
+            return;
+        }
+        if (game.isJournaling()) {
+            // the journal holds no record of the saved history, so undoing into it could not be
+            // replayed; the game starts a fresh history at the saved state instead
+            boolean solved = node.getBoard().getWasSolved();
+            node = new HistoryNode(node.getBoard());
+            if (solved) {
+                node.getBoard().setWasSolved();
             }
         }
+        Board board = node.getBoard();
+        game.startGame(node, j -> {
+            j.puzzle(board);
+            for (int row = 0; row < board.size(); row++) {
+                for (int col = 0; col < board.size(); col++) {
+                    if (board.isMutable(row, col) && board.getElement(row, col) != 0) {
+                        j.set(row, col, board.getElement(row, col));
+                    }
+                }
+            }
+        });
     }
 
     public static void main(String[] args) {
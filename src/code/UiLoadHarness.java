@@ -0,0 +1,155 @@
+package code;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+/**
+ * Measures interaction latency of the board UI in headless AWT mode.
+ * Drives the {@link GameController} of {@link SudokuDialog} through the same board and number
+ * callbacks, on the event dispatch thread, so every event pays for what it pays for in the
+ * window: the history entry, the journal write when the sudoku.journal system property names
+ * a file, the background solvability checks and the rebuilt number buttons. The panel is
+ * painted into an off-screen image after every event. Reports latency percentiles from event
+ * to completed paint, and the bytes allocated per event on the event dispatch thread, for
+ * clicks and numbers separately.
+ *
+ * Events are random, or read from a script with one "click x y" or "number n" per line.
+ *
+ * Usage: java -cp Sudoku.jar code.UiLoadHarness [size] [events] [events per second] [seed] [script]
+ */
+class UiLoadHarness implements GameController.View {
+
+    private final GameController game;
+    private final BufferedImage image;
+    private final JLabel msgBar = new JLabel("");
+
+    private UiLoadHarness(int size, long seed) throws IOException {
+        Board board = new Board(size);
+        board.generateBoard(seed);
+        game = new GameController(board, this);
+        String journal = System.getProperty("sudoku.journal");
+        if (journal != null) {
+            game.setJournal(new MoveJournal(Paths.get(journal)));
+        }
+        game.panel().setSize(276, 276);
+        game.panel().pencilMarks = Boolean.getBoolean("sudoku.pencilMarks");
+        game.checkSolvable();
+        image = new BufferedImage(276, 276, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Override
+    public void showMessage(String msg) {
+        msgBar.setText(msg);
+    }
+
+    @Override
+    public void showNumberButtons(JPanel numberButtons) {
+        numberButtons.setSize(278, 60);
+        numberButtons.doLayout();
+    }
+
+    @Override
+    public void showSolvable(Boolean solvable) {
+    }
+
+    @Override
+    public void showWon(int size) {
+        // the "You Won!" dialog cannot open headless
+    }
+
+    private void paint() {
+        Graphics2D g = image.createGraphics();
+        try {
+            game.panel().paint(g);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        List<String> script = args.length > 4 ? Files.readAllLines(Paths.get(args[4])) : null;
+        if (script != null) {
+            events = script.size();
+        }
+
+        UiLoadHarness[] harness = new UiLoadHarness[1];
+        long[] thread = new long[1];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                harness[0] = new UiLoadHarness(size, seed);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            thread[0] = Thread.currentThread().getId();
+        });
+        SplittableRandom rand = new SplittableRandom(seed);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] clickTimes = new long[events], numberTimes = new long[events];
+        long clickBytes = 0, numberBytes = 0;
+        int clicks = 0, numbers = 0;
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long next = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            String[] event = script != null ? script.get(i).trim().split("\\s+")
+                    : i % 2 == 0 ? new String[] {"click", String.valueOf(rand.nextInt(size)), String.valueOf(rand.nextInt(size))}
+                    : new String[] {"number", String.valueOf(rand.nextInt(size + 1))};
+            LockSupport.parkNanos(next - System.nanoTime());
+            next += interval;
+            boolean click = event[0].equals("click");
+            long bytes = threads.getThreadAllocatedBytes(thread[0]);
+            long start = System.nanoTime();
+            // the wait includes results of background checks queued ahead of the event
+            SwingUtilities.invokeAndWait(() -> {
+                if (click) {
+                    harness[0].game.boardClicked(Integer.parseInt(event[1]), Integer.parseInt(event[2]));
+                } else {
+                    harness[0].game.numberClicked(Integer.parseInt(event[1]));
+                }
+                harness[0].paint();
+            });
+            long elapsed = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(thread[0]) - bytes;
+            if (click) {
+                clickTimes[clicks++] = elapsed;
+                clickBytes += bytes;
+            } else {
+                numberTimes[numbers++] = elapsed;
+                numberBytes += bytes;
+            }
+        }
+        report("click", Arrays.copyOf(clickTimes, clicks), clickBytes);
+        report("number", Arrays.copyOf(numberTimes, numbers), numberBytes);
+    }
+
+    private static void report(String name, long[] times, long bytes) {
+        if (times.length == 0) {
+            return;
+        }
+        Arrays.sort(times);
+        System.out.printf("%-6s %6d events  latency us: p50 %d, p90 %d, p99 %d, max %d  allocated: %d bytes/event%n",
+                name, times.length, percentile(times, 0.50), percentile(times, 0.90), percentile(times, 0.99),
+                times[times.length - 1] / 1000, bytes / times.length);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1000;
+    }
+}